@@ -0,0 +1,503 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.awt.Dimension;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.SoftReference;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.StorageProvider;
+
+/**
+ * Pure java scaler. Each pixel of the derivative is the exact average of the source area it covers, so thin lines and dithered or bitonal
+ * masters do not produce aliasing. The scaler works directly on the byte rasters of packed (e.g. bitonal) and 8 bit images, other images are
+ * converted row by row. Very large masters are subsampled while they are decoded, but each pixel of the derivative is still averaged from at
+ * least 4x4 decoded pixels. The working buffers, the rasters of the decoded master and of the derivative and the JPEG writer are reused per
+ * thread, so an image allocates little more than the objects of the image readers.
+ */
+public class AreaAveragingImageScaler implements ImageScaler {
+
+    // minimum number of decoded pixels per derivative pixel and direction, larger images are subsampled while decoding
+    private static final int MIN_SAMPLES_PER_PIXEL = 4;
+
+    // fixed point precision of the horizontal pass
+    private static final int PRECISION = 16;
+
+    private static final ThreadLocal<ScalingBuffers> BUFFERS = ThreadLocal.withInitial(ScalingBuffers::new);
+
+    @Override
+    public void createDerivative(Path source, Dimension box, OutputStream out, ExportTrace trace) throws IOException {
+        ExportWatchdog.Watch watch = ExportWatchdog.current();
+        BufferedImage image;
+        try (ExportTrace.Span span = trace.start("decode", "image"); ImageInputStream in = openImage(source)) {
+            image = decode(in, box);
+            // an aborted reader returns the incomplete image
+            watch.checkCancelled();
+            if (image == null) {
+                throw new IOException("No image reader found for " + source);
+            }
+            span.arg("width", image.getWidth()).arg("height", image.getHeight());
+        }
+        BufferedImage scaled;
+        try (ExportTrace.Span span = trace.start("scale", "image")) {
+            scaled = scale(image, box);
+        }
+        watch.checkCancelled();
+        try (ExportTrace.Span span = trace.start("encode", "image")) {
+            writeJpeg(scaled, out);
+        }
+        watch.checkCancelled();
+    }
+
+    private static ImageInputStream openImage(Path source) throws IOException {
+        if (ConfigurationHelper.getInstance().useS3()) {
+            return new MemoryCacheImageInputStream(StorageProvider.getInstance().newInputStream(source));
+        }
+        return new FileImageInputStream(source.toFile());
+    }
+
+    /**
+     * Decode the first image of the stream, subsampled if it is much larger than the box. Bitonal, gray and 8 bit color images are decoded
+     * into the buffer of the current thread, the image is only valid until the next call on this thread.
+     *
+     * @return the image or null, if there is no reader for the format
+     */
+    static BufferedImage decode(ImageInputStream in, Dimension box) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try (ExportWatchdog.Registration registration = ExportWatchdog.current().onAbort(reader::abort)) {
+            reader.setInput(in, true, true);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int subsampling = getSubsampling(reader.getWidth(0), reader.getHeight(0), box);
+            if (subsampling > 1) {
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            }
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            if (types.hasNext()) {
+                int width = (reader.getWidth(0) + subsampling - 1) / subsampling;
+                int height = (reader.getHeight(0) + subsampling - 1) / subsampling;
+                param.setDestination(BUFFERS.get().createDestination(types.next(), width, height));
+            }
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    static int getSubsampling(int width, int height, Dimension box) {
+        double factor = Math.max((double) width / box.width, (double) height / box.height);
+        return Math.max(1, (int) (factor / MIN_SAMPLES_PER_PIXEL));
+    }
+
+    /**
+     * @return the size of the derivative, images smaller than the box are not enlarged
+     */
+    static Dimension getTargetSize(int width, int height, Dimension box) {
+        double factor = Math.max(1, Math.max((double) width / box.width, (double) height / box.height));
+        return new Dimension(Math.max(1, (int) Math.round(width / factor)), Math.max(1, (int) Math.round(height / factor)));
+    }
+
+    /**
+     * Scale an image into the box with area averaging
+     *
+     * @param source image, any type
+     * @param box maximum width and height
+     * @return an image of type TYPE_BYTE_GRAY for gray and bitonal sources, TYPE_3BYTE_BGR otherwise. It uses the buffer of the current
+     *         thread and is only valid until the next call on this thread.
+     */
+    static BufferedImage scale(BufferedImage source, Dimension box) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        Dimension target = getTargetSize(width, height, box);
+        int targetWidth = target.width;
+        int targetHeight = target.height;
+
+        RowReader rowReader = RowReader.create(source);
+        int bands = rowReader.bands;
+
+        ScalingBuffers buffers = BUFFERS.get();
+        buffers.prepare(width, height, targetWidth, targetHeight, bands);
+        BufferedImage result = buffers.createTarget(targetWidth, targetHeight, bands);
+        byte[] resultData = buffers.target;
+        int[] row = buffers.row;
+        long[] horizontalSums = buffers.horizontalSums;
+        int[] scaledRow = buffers.scaledRow;
+        long[] verticalSums = buffers.verticalSums;
+        int[] xIndex = buffers.xIndex;
+        int[] xWeight = buffers.xWeight;
+        int[] yIndex = buffers.yIndex;
+        int[] yWeight = buffers.yWeight;
+
+        int scaledRowLength = targetWidth * bands;
+        long verticalDivisor = (long) height * PRECISION;
+        for (int y = 0; y < height; y++) {
+            rowReader.read(y, row);
+
+            // horizontal pass: each source pixel contributes to one or two target pixels, the weights of a target pixel add up to width
+            Arrays.fill(horizontalSums, 0, scaledRowLength, 0);
+            for (int x = 0; x < width; x++) {
+                int index = xIndex[x] * bands;
+                int weight = xWeight[x];
+                int remainder = targetWidth - weight;
+                int sample = x * bands;
+                for (int b = 0; b < bands; b++) {
+                    int value = row[sample + b];
+                    horizontalSums[index + b] += (long) value * weight;
+                    if (remainder > 0) {
+                        horizontalSums[index + bands + b] += (long) value * remainder;
+                    }
+                }
+            }
+            for (int i = 0; i < scaledRowLength; i++) {
+                scaledRow[i] = (int) ((horizontalSums[i] * PRECISION + width / 2) / width);
+            }
+
+            // vertical pass: add the row to the current target row, write it when it is complete
+            int targetY = yIndex[y];
+            int weight = yWeight[y];
+            int remainder = targetHeight - weight;
+            for (int i = 0; i < scaledRowLength; i++) {
+                verticalSums[i] += (long) scaledRow[i] * weight;
+            }
+            boolean complete = remainder > 0 || (long) (y + 1) * targetHeight == (long) (targetY + 1) * height;
+            if (complete) {
+                writeRow(verticalSums, verticalDivisor, resultData, targetY, targetWidth, bands);
+                for (int i = 0; i < scaledRowLength; i++) {
+                    verticalSums[i] = (long) scaledRow[i] * remainder;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void writeRow(long[] sums, long divisor, byte[] data, int y, int width, int bands) {
+        int offset = y * width * bands;
+        if (bands == 1) {
+            for (int x = 0; x < width; x++) {
+                data[offset + x] = (byte) clamp((sums[x] + divisor / 2) / divisor);
+            }
+        } else {
+            // 3 byte BGR
+            for (int x = 0; x < width; x++) {
+                int i = x * 3;
+                data[offset + i] = (byte) clamp((sums[i + 2] + divisor / 2) / divisor);
+                data[offset + i + 1] = (byte) clamp((sums[i + 1] + divisor / 2) / divisor);
+                data[offset + i + 2] = (byte) clamp((sums[i] + divisor / 2) / divisor);
+            }
+        }
+    }
+
+    private static int clamp(long value) {
+        return (int) Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * For each source pixel: the target pixel it starts in and the part of the source pixel that falls into it. The rest falls into the next
+     * target pixel. Source pixels have the size target and target pixels the size source, so all weights are integers.
+     */
+    private static void computeWeights(int source, int target, int[] index, int[] weight) {
+        for (int i = 0; i < source; i++) {
+            long start = (long) i * target;
+            int j = (int) (start / source);
+            long boundary = (long) (j + 1) * source;
+            index[i] = j;
+            weight[i] = (int) Math.min(target, boundary - start);
+        }
+    }
+
+    static void writeJpeg(BufferedImage image, OutputStream out) throws IOException {
+        JpegEncoder.write(image, out);
+    }
+
+    /**
+     * working buffers of a thread, they grow to the largest image scaled so far. The buffer of the decoded master can be large, it is
+     * released if the memory runs low.
+     */
+    private static class ScalingBuffers {
+        private static final ColorModel GRAY = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+        private static final ColorModel RGB = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+
+        private SoftReference<byte[]> decoded = new SoftReference<>(null);
+        private byte[] target = new byte[0];
+        private int[] row = new int[0];
+        private long[] horizontalSums = new long[0];
+        private int[] scaledRow = new int[0];
+        private long[] verticalSums = new long[0];
+        private int[] xIndex = new int[0];
+        private int[] xWeight = new int[0];
+        private int[] yIndex = new int[0];
+        private int[] yWeight = new int[0];
+
+        private void prepare(int width, int height, int targetWidth, int targetHeight, int bands) {
+            if (row.length < width * bands) {
+                row = new int[width * bands];
+            }
+            if (horizontalSums.length < targetWidth * bands) {
+                horizontalSums = new long[targetWidth * bands];
+                scaledRow = new int[targetWidth * bands];
+                verticalSums = new long[targetWidth * bands];
+            }
+            Arrays.fill(verticalSums, 0, targetWidth * bands, 0);
+            if (xIndex.length < width) {
+                xIndex = new int[width];
+                xWeight = new int[width];
+            }
+            if (yIndex.length < height) {
+                yIndex = new int[height];
+                yWeight = new int[height];
+            }
+            computeWeights(width, targetWidth, xIndex, xWeight);
+            computeWeights(height, targetHeight, yIndex, yWeight);
+        }
+
+        /**
+         * @return a TYPE_BYTE_GRAY or TYPE_3BYTE_BGR image backed by the target buffer
+         */
+        private BufferedImage createTarget(int width, int height, int bands) {
+            int size = width * height * bands;
+            if (target.length < size) {
+                target = new byte[size];
+            }
+            int[] bandOffsets = bands == 1 ? new int[] { 0 } : new int[] { 2, 1, 0 };
+            WritableRaster raster = Raster.createInterleavedRaster(new DataBufferByte(target, size), width, height, width * bands, bands,
+                    bandOffsets, null);
+            return new BufferedImage(bands == 1 ? GRAY : RGB, raster, false, null);
+        }
+
+        /**
+         * @return an image of the given type backed by the buffer for decoded masters, or null if the type does not use a single byte
+         *         array, e.g. 16 bit images
+         */
+        private BufferedImage createDestination(ImageTypeSpecifier type, int width, int height) {
+            SampleModel sampleModel = type.getSampleModel(width, height);
+            if (sampleModel.getDataType() != DataBuffer.TYPE_BYTE) {
+                return null;
+            }
+            int size;
+            if (sampleModel instanceof MultiPixelPackedSampleModel) {
+                size = ((MultiPixelPackedSampleModel) sampleModel).getScanlineStride() * height;
+            } else if (sampleModel instanceof PixelInterleavedSampleModel
+                    && Arrays.stream(((PixelInterleavedSampleModel) sampleModel).getBankIndices()).allMatch(bank -> bank == 0)) {
+                size = ((PixelInterleavedSampleModel) sampleModel).getScanlineStride() * height;
+            } else {
+                return null;
+            }
+            byte[] buffer = decoded.get();
+            if (buffer == null || buffer.length < size) {
+                buffer = new byte[size];
+                decoded = new SoftReference<>(buffer);
+            } else {
+                // some decoders, e.g. CCITT, only write the set bits and expect a cleared raster
+                Arrays.fill(buffer, 0, size, (byte) 0);
+            }
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, new DataBufferByte(buffer, size), null);
+            ColorModel colorModel = type.getColorModel();
+            return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+        }
+    }
+
+    /**
+     * Reads the rows of an image as 8 bit gray or RGB samples. Packed and byte interleaved rasters are read directly from the data buffer.
+     */
+    private abstract static class RowReader {
+
+        protected final Raster raster;
+        protected final int width;
+        protected final int bands;
+
+        protected RowReader(Raster raster, int bands) {
+            this.raster = raster;
+            this.width = raster.getWidth();
+            this.bands = bands;
+        }
+
+        abstract void read(int y, int[] row);
+
+        static RowReader create(BufferedImage image) {
+            Raster raster = image.getRaster();
+            ColorModel colorModel = image.getColorModel();
+            SampleModel sampleModel = raster.getSampleModel();
+            boolean byteData = raster.getDataBuffer() instanceof DataBufferByte && raster.getDataBuffer().getNumBanks() == 1;
+            if (byteData && colorModel instanceof IndexColorModel && sampleModel instanceof MultiPixelPackedSampleModel) {
+                return new PackedRowReader(raster, (IndexColorModel) colorModel);
+            }
+            if (byteData && colorModel instanceof ComponentColorModel && sampleModel instanceof ComponentSampleModel
+                    && sampleModel.getDataType() == DataBuffer.TYPE_BYTE) {
+                ColorSpace colorSpace = colorModel.getColorSpace();
+                if (colorSpace.getType() == ColorSpace.TYPE_GRAY) {
+                    return new ByteRowReader(raster, 1);
+                }
+                if (colorSpace.isCS_sRGB()) {
+                    return new ByteRowReader(raster, 3);
+                }
+            }
+            return new RgbRowReader(image);
+        }
+    }
+
+    /**
+     * images with up to 8 bit per pixel and a color palette, e.g. bitonal TIFFs
+     */
+    private static class PackedRowReader extends RowReader {
+        private final byte[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int bitsPerPixel;
+        private final int bitOffset;
+        private final int[] palette;
+
+        private PackedRowReader(Raster raster, IndexColorModel colorModel) {
+            super(raster, isGray(colorModel) ? 1 : 3);
+            MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            this.data = buffer.getData();
+            this.bitsPerPixel = sampleModel.getPixelBitStride();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+            int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+            this.offset = buffer.getOffset() + sampleModel.getOffset(x0, y0);
+            this.bitOffset = sampleModel.getBitOffset(x0);
+            this.palette = new int[colorModel.getMapSize()];
+            colorModel.getRGBs(palette);
+        }
+
+        private static boolean isGray(IndexColorModel colorModel) {
+            for (int i = 0; i < colorModel.getMapSize(); i++) {
+                int red = colorModel.getRed(i);
+                if (red != colorModel.getGreen(i) || red != colorModel.getBlue(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        void read(int y, int[] row) {
+            int rowOffset = offset + y * scanlineStride;
+            int mask = (1 << bitsPerPixel) - 1;
+            for (int x = 0; x < width; x++) {
+                int bit = bitOffset + x * bitsPerPixel;
+                int value = data[rowOffset + (bit >> 3)] & 0xff;
+                int index = (value >> (8 - (bit & 7) - bitsPerPixel)) & mask;
+                int rgb = index < palette.length ? palette[index] : 0;
+                if (bands == 1) {
+                    row[x] = rgb & 0xff;
+                } else {
+                    int i = x * 3;
+                    row[i] = (rgb >> 16) & 0xff;
+                    row[i + 1] = (rgb >> 8) & 0xff;
+                    row[i + 2] = rgb & 0xff;
+                }
+            }
+        }
+    }
+
+    /**
+     * 8 bit gray or sRGB images, alpha channels are ignored
+     */
+    private static class ByteRowReader extends RowReader {
+        private final byte[] data;
+        private final int offset;
+        private final int scanlineStride;
+        private final int pixelStride;
+        private final int[] bandOffsets;
+
+        private ByteRowReader(Raster raster, int bands) {
+            super(raster, bands);
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+            this.data = buffer.getData();
+            this.scanlineStride = sampleModel.getScanlineStride();
+            this.pixelStride = sampleModel.getPixelStride();
+            this.bandOffsets = sampleModel.getBandOffsets();
+            int x0 = raster.getMinX() - raster.getSampleModelTranslateX();
+            int y0 = raster.getMinY() - raster.getSampleModelTranslateY();
+            this.offset = buffer.getOffset() + y0 * scanlineStride + x0 * pixelStride;
+        }
+
+        @Override
+        void read(int y, int[] row) {
+            int rowOffset = offset + y * scanlineStride;
+            for (int x = 0; x < width; x++) {
+                int pixel = rowOffset + x * pixelStride;
+                int i = x * bands;
+                for (int b = 0; b < bands; b++) {
+                    row[i + b] = data[pixel + bandOffsets[b]] & 0xff;
+                }
+            }
+        }
+    }
+
+    /**
+     * all other images, converted to sRGB by java2d
+     */
+    private static class RgbRowReader extends RowReader {
+        private final BufferedImage image;
+        private final int[] rgb;
+
+        private RgbRowReader(BufferedImage image) {
+            super(image.getRaster(), 3);
+            this.image = image;
+            this.rgb = new int[width];
+        }
+
+        @Override
+        void read(int y, int[] row) {
+            image.getRGB(0, y, width, 1, rgb, 0, width);
+            for (int x = 0; x < width; x++) {
+                int i = x * 3;
+                row[i] = (rgb[x] >> 16) & 0xff;
+                row[i + 1] = (rgb[x] >> 8) & 0xff;
+                row[i + 2] = rgb[x] & 0xff;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.awt.Dimension;
+import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.unigoettingen.sub.commons.contentlib.exceptions.ContentLibException;
+import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
+import de.unigoettingen.sub.commons.contentlib.imagelib.JpegInterpreter;
+
+/**
+ * Scales the images with the ImageManager of the ContentLib, as the Goobi image server does. The ContentLib cannot be aborted, an aborted
+ * export is noticed between decoding, scaling and encoding. Each image gets a new ImageManager and JpegInterpreter, the ContentLib offers no
+ * way to reuse them, so the buffers and the {@link JpegEncoder} of the java engine are not used here.
+ */
+public class ContentLibImageScaler implements ImageScaler {
+
+    @Override
+    public void createDerivative(Path source, Dimension box, OutputStream out, ExportTrace trace) throws IOException {
+        ExportWatchdog.Watch watch = ExportWatchdog.current();
+        ImageManager im = null;
+        JpegInterpreter pi = null;
+        try {
+            try (ExportTrace.Span span = trace.start("decode", "image")) {
+                if (ConfigurationHelper.getInstance().useS3()) {
+                    try {
+                        URI uri = new URI(source.toString()
+                                .replace(ConfigurationHelper.getInstance().getMetadataFolder(),
+                                        "s3://" + ConfigurationHelper.getInstance().getS3Bucket() + "/"));
+                        im = new ImageManager(uri);
+                    } catch (URISyntaxException e) {
+                        throw new IOException(e);
+                    }
+                } else {
+                    im = new ImageManager(source.toUri());
+                }
+            }
+
+            watch.checkCancelled();
+
+            RenderedImage ri2;
+            try (ExportTrace.Span span = trace.start("scale", "image")) {
+                ri2 = im.scaleImageByPixel(box, ImageManager.SCALE_TO_BOX, 0);
+            }
+
+            watch.checkCancelled();
+
+            try (ExportTrace.Span span = trace.start("encode", "image")) {
+                BufferedOutputStream buffered = new BufferedOutputStream(out, 65536);
+                pi = new JpegInterpreter(ri2);
+                pi.writeToStream(null, buffered);
+                buffered.flush();
+            }
+        } catch (ContentLibException e) {
+            throw new IOException(e);
+        } finally {
+            if (im != null) {
+                im.close();
+            }
+            if (pi != null) {
+                pi.close();
+            }
+        }
+    }
+}
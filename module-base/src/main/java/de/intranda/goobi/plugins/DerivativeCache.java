@@ -0,0 +1,121 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.stream.Stream;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Folder with prepared derivatives of the images of a process. A derivative is named after its master, e.g. 00000001.tif.jpg, and is current
+ * as long as it is newer than its master. Derivatives are written under a temporary name and renamed when they are complete, so an export
+ * never reads an incomplete file.
+ */
+@Log4j2
+public class DerivativeCache {
+
+    private static final String SUFFIX = ".jpg";
+    private static final String PART_SUFFIX = ".part";
+
+    @Getter
+    private final Path folder;
+
+    public DerivativeCache(Path folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * @param master master image
+     * @return location of the derivative, the file may not exist
+     */
+    public Path getDerivative(Path master) {
+        return folder.resolve(master.getFileName().toString() + SUFFIX);
+    }
+
+    /**
+     * @param master master image
+     * @return true, if the derivative exists and is newer than the master
+     * @throws IOException
+     */
+    public boolean isCurrent(Path master) throws IOException {
+        Path derivative = getDerivative(master);
+        return Files.exists(derivative)
+                && Files.getLastModifiedTime(derivative).toMillis() >= StorageProvider.getInstance().getLastModifiedDate(master);
+    }
+
+    /**
+     * Create the derivative of a master, an existing derivative is replaced
+     * 
+     * @return location of the derivative
+     * @throws IOException
+     */
+    public Path render(Path master, ImageScaler scaler, Dimension box, ExportTrace trace) throws IOException {
+        Files.createDirectories(folder);
+        Path derivative = getDerivative(master);
+        Path part = Files.createTempFile(folder, derivative.getFileName().toString(), PART_SUFFIX);
+        try {
+            try (OutputStream out = Files.newOutputStream(part)) {
+                scaler.createDerivative(master, box, out, trace);
+            }
+            try {
+                Files.move(part, derivative, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part, derivative, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(part);
+        }
+        return derivative;
+    }
+
+    /**
+     * Delete the derivatives of all images that are not selected anymore
+     * 
+     * @param imageNames names of the selected master images
+     */
+    public void retain(Collection<String> imageNames) {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(folder)) {
+            files.filter(file -> {
+                String filename = file.getFileName().toString();
+                return filename.endsWith(SUFFIX) && !imageNames.contains(filename.substring(0, filename.length() - SUFFIX.length()));
+            }).forEach(file -> {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    log.warn("Cannot delete derivative {}", file, e);
+                }
+            });
+        } catch (IOException e) {
+            log.error("Cannot list derivatives in {}", folder, e);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.function.BooleanSupplier;
+
+import org.goobi.beans.Process;
+
+import de.sub.goobi.helper.exceptions.SwapException;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Renders the derivatives of the selected images in advance. An export that has to wait for another export of the same record renders its
+ * missing derivatives while it waits, so it mostly publishes prepared files once it gets its turn. The derivatives are rendered on the shared
+ * cpu threads, like the derivatives of a running export.
+ */
+@Log4j2
+public final class DerivativePreRenderer {
+
+    private static final DerivativePreRenderer INSTANCE = new DerivativePreRenderer();
+
+    private DerivativePreRenderer() {
+    }
+
+    public static DerivativePreRenderer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Render the missing or outdated derivatives of the selected images on the current thread. Derivatives of images that are not selected
+     * anymore are left for the export, another export of the process may still read them.
+     * 
+     * @param process Goobi process
+     * @param configuration configuration of the export
+     * @param imageNames names of the selected master images
+     * @param waiting returns false as soon as the export can start, the remaining derivatives are rendered by the export
+     * @return number of rendered derivatives, 0 if pre-rendering is disabled or all derivatives are current
+     * @throws IOException
+     * @throws SwapException
+     */
+    public int preRender(Process process, HerisExportConfiguration configuration, Collection<String> imageNames, BooleanSupplier waiting)
+            throws IOException, SwapException {
+        DerivativeCache cache = configuration.getDerivativeCache(process);
+        if (cache == null) {
+            return 0;
+        }
+        String imageFolder = process.getImagesTifDirectory(false);
+        ImageScaler imageScaler = configuration.getImageScaler();
+        int rendered = 0;
+        for (String imageName : imageNames) {
+            if (!waiting.getAsBoolean()) {
+                break;
+            }
+            Path master = Paths.get(imageFolder, imageName);
+            if (cache.isCurrent(master)) {
+                continue;
+            }
+            try {
+                ExportExecutors.getInstance()
+                        .runCpuBound(() -> cache.render(master, imageScaler, HerisExportPlugin.DERIVATIVE_SIZE, ExportTrace.DISABLED));
+                rendered++;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                // the export tries again
+                log.warn("Cannot pre-render {} of process {}", imageName, process.getId(), e);
+            }
+        }
+        log.info("Pre-rendered {} of {} derivatives of process {}", rendered, imageNames.size(), process.getId());
+        return rendered;
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FileUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Staging area in a temporary folder
+ */
+@Log4j2
+public class DiskStagingArea implements StagingArea {
+
+    private final Path folder;
+
+    /**
+     * @param parentFolder folder to create the temporary folder in, null to use the default temp folder
+     * @param prefix prefix of the temporary folder name
+     * @throws IOException
+     */
+    public DiskStagingArea(Path parentFolder, String prefix) throws IOException {
+        if (parentFolder == null) {
+            folder = Files.createTempDirectory(prefix); // NOSONAR temp dir is safe here, it gets deleted at the end
+        } else {
+            Files.createDirectories(parentFolder);
+            folder = Files.createTempDirectory(parentFolder, prefix);
+        }
+    }
+
+    @Override
+    public OutputStream newOutputStream(String filename) throws IOException {
+        return Files.newOutputStream(folder.resolve(filename));
+    }
+
+    @Override
+    public InputStream newInputStream(String filename) throws IOException {
+        return Files.newInputStream(folder.resolve(filename));
+    }
+
+    @Override
+    public List<String> list() {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        } catch (IOException e) {
+            log.error(e);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public long size(String filename) throws IOException {
+        return Files.size(folder.resolve(filename));
+    }
+
+    @Override
+    public void rename(String filename, String newFilename) throws IOException {
+        Files.move(folder.resolve(filename), folder.resolve(newFilename), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void delete(String filename) throws IOException {
+        Files.deleteIfExists(folder.resolve(filename));
+    }
+
+    @Override
+    public Path getPath(String filename) {
+        return folder.resolve(filename);
+    }
+
+    @Override
+    public Path getFolder() {
+        return folder;
+    }
+
+    @Override
+    public void close() {
+        if (!FileUtils.deleteQuietly(folder.toFile())) {
+            log.error("Cannot delete staging folder {}", folder);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.goobi.beans.Process;
+
+import lombok.Getter;
+
+/**
+ * State of a single export run. A new context is created for each export, so one plugin instance can run several exports at the same time.
+ */
+@Getter
+public class ExportContext {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss:SSS");
+
+    private final Process process;
+
+    private final String herisId;
+
+    private final HerisExportConfiguration configuration;
+
+    // time of the export, used for the date fields of the JSON file
+    private final LocalDateTime exportDate;
+
+    // temporary storage for the images and the JSON file of this export
+    private final StagingArea staging;
+
+    // target of this export, null if the data is not exported
+    private final ExportTarget exportTarget;
+
+    // spans of this export, disabled if tracing is switched off
+    private final ExportTrace trace;
+
+    // deadlines of this export, aborts the export if they are exceeded
+    private final ExportWatchdog.Watch watch;
+
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+
+    public ExportContext(Process process, String herisId, HerisExportConfiguration configuration, LocalDateTime exportDate, StagingArea staging,
+            ExportTarget exportTarget, ExportTrace trace, ExportWatchdog.Watch watch) {
+        this.process = process;
+        this.herisId = herisId;
+        this.configuration = configuration;
+        this.exportDate = exportDate;
+        this.staging = staging;
+        this.exportTarget = exportTarget;
+        this.trace = trace;
+        this.watch = watch;
+    }
+
+    public String getFormattedExportDate() {
+        return DATE_FORMAT.format(exportDate);
+    }
+}
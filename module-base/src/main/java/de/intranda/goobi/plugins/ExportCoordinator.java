@@ -0,0 +1,171 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Serialises exports of the same HERIS ID, exports of different records run in parallel. The locks are striped, so the number of lock objects
+ * does not grow with the number of exported records. An export that is requested while an identical export is already running waits for it
+ * and returns its result, including the problems that were reported, instead of rendering and uploading the same data again.
+ */
+@Log4j2
+public final class ExportCoordinator {
+
+    private static final int STRIPES = 64;
+
+    private static final ExportCoordinator INSTANCE = new ExportCoordinator();
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+
+    // running or waiting exports, key is the export key
+    private final ConcurrentMap<String, CompletableFuture<ExportResult>> exportsInProgress = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface ExportTask {
+        ExportResult run() throws IOException;
+    }
+
+    /**
+     * Work that an export does while it waits for the lock of its record
+     */
+    @FunctionalInterface
+    public interface QueuedTask {
+        /**
+         * @param waiting returns false as soon as the lock is free, the task should return then
+         */
+        void run(BooleanSupplier waiting) throws IOException;
+    }
+
+    /**
+     * Outcome of an export, shared by all requests that joined it
+     */
+    @Getter
+    public static final class ExportResult {
+        private final boolean success;
+        private final List<String> problems;
+
+        public ExportResult(boolean success, List<String> problems) {
+            this.success = success;
+            this.problems = Collections.unmodifiableList(new ArrayList<>(problems));
+        }
+    }
+
+    private ExportCoordinator() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock(true);
+        }
+    }
+
+    public static ExportCoordinator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Run the export while holding the lock of the HERIS ID
+     * 
+     * @param herisId HERIS ID of the record
+     * @param exportKey identifies the export data, requests with the same key share the result
+     * @param task the export
+     * @return result of the export, the same instance for all requests with the same export key
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ExportResult run(String herisId, String exportKey, ExportTask task) throws IOException, InterruptedException {
+        return run(herisId, exportKey, null, task);
+    }
+
+    /**
+     * Run the export while holding the lock of the HERIS ID
+     * 
+     * @param herisId HERIS ID of the record
+     * @param exportKey identifies the export data, requests with the same key share the result
+     * @param whileQueued runs before the export waits for the lock, if another export holds it, may be null
+     * @param task the export
+     * @return result of the export, the same instance for all requests with the same export key
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public ExportResult run(String herisId, String exportKey, QueuedTask whileQueued, ExportTask task) throws IOException, InterruptedException {
+        CompletableFuture<ExportResult> future = new CompletableFuture<>();
+        CompletableFuture<ExportResult> runningExport = exportsInProgress.putIfAbsent(exportKey, future);
+        if (runningExport != null) {
+            log.info("Export of HERIS ID {} is already in progress, wait for its result", herisId);
+            return await(runningExport);
+        }
+
+        ReentrantLock lock = locks[Math.floorMod(herisId.hashCode(), STRIPES)];
+        try {
+            // a timed tryLock respects the fairness of the lock
+            if (!lock.tryLock(0, TimeUnit.SECONDS)) {
+                if (whileQueued != null) {
+                    log.debug("HERIS ID {} is locked by another export, prepare the export while waiting", herisId);
+                    whileQueued.run(lock::isLocked);
+                }
+                lock.lockInterruptibly();
+            }
+            try {
+                ExportResult result = task.run();
+                future.complete(result);
+                return result;
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            exportsInProgress.remove(exportKey, future);
+            // never leave waiting requests behind, e.g. after an error
+            future.completeExceptionally(new IOException("Export of HERIS ID " + herisId + " was aborted"));
+        }
+    }
+
+    private static ExportResult await(CompletableFuture<ExportResult> runningExport) throws IOException, InterruptedException {
+        try {
+            return runningExport.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                // the other export was interrupted, not this one
+                throw new IOException(cause);
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.Collections;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Immutable time limits of an export. All durations are in seconds, 0 disables the limit.
+ */
+@Getter
+public class ExportDeadlines {
+
+    public static final ExportDeadlines NONE = new ExportDeadlines(0, Collections.emptyMap(), 0, 0);
+
+    // maximum duration of the complete export
+    private final long exportTimeout;
+
+    // maximum duration of the single stages, key is the stage name
+    private final Map<String, Long> stageTimeouts;
+
+    // minimum number of bytes per second of a transfer, measured over stallTime
+    private final long minThroughput;
+
+    // length of the interval in which the throughput is measured
+    private final long stallTime;
+
+    public ExportDeadlines(long exportTimeout, Map<String, Long> stageTimeouts, long minThroughput, long stallTime) {
+        this.exportTimeout = exportTimeout;
+        this.stageTimeouts = Collections.unmodifiableMap(stageTimeouts);
+        this.minThroughput = minThroughput;
+        this.stallTime = stallTime;
+    }
+
+    /**
+     * @param stage name of the stage
+     * @return the timeout of the stage in seconds, 0 if it has none
+     */
+    public long getStageTimeout(String stage) {
+        Long timeout = stage == null ? null : stageTimeouts.get(stage);
+        return timeout == null ? 0 : timeout;
+    }
+
+    /**
+     * @return true, if any limit is configured
+     */
+    public boolean isEnabled() {
+        return exportTimeout > 0 || !stageTimeouts.isEmpty() || (minThroughput > 0 && stallTime > 0);
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Structure element of a record, reduced to its type and the metadata used by the export
+ */
+@Getter
+public class ExportElement {
+
+    private final String type;
+
+    // metadata values by metadata type, in the order of the metadata file
+    private final Map<String, List<String>> metadata = new LinkedHashMap<>();
+
+    public ExportElement(String type) {
+        this.type = type;
+    }
+
+    public void addMetadata(String name, String value) {
+        metadata.computeIfAbsent(name, k -> new ArrayList<>()).add(value);
+    }
+
+    public boolean hasMetadata(String name) {
+        return metadata.containsKey(name);
+    }
+
+    /**
+     * @param name metadata type
+     * @return the first value of the metadata type, or null
+     */
+    public String getFirstValue(String name) {
+        List<String> values = metadata.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    /**
+     * @param name metadata type
+     * @return the last value of the metadata type, or null
+     */
+    public String getLastValue(String name) {
+        List<String> values = metadata.get(name);
+        return values == null ? null : values.get(values.size() - 1);
+    }
+
+    public List<String> getValues(String name) {
+        List<String> values = metadata.get(name);
+        return values == null ? Collections.emptyList() : Collections.unmodifiableList(values);
+    }
+}
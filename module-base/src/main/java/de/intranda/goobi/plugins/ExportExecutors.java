@@ -0,0 +1,227 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Threads of the export stages, shared by all exports in the JVM. The pipelined remote operations, e.g. the deletes of the previous images, and the
+ * publishing to several targets run on virtual threads if they are enabled and the runtime supports them (Java 21 or newer), otherwise on platform
+ * threads. The transfers of a single target run on the thread of the export. The CPU bound decoding, scaling and encoding of the images runs on a
+ * bounded pool, by default one thread per core, so many concurrent exports do not decode more images at the same time than the machine has cores. The
+ * scalers read the master while they decode it, so reading the master is part of the CPU bound task as well.
+ */
+@Log4j2
+public final class ExportExecutors {
+
+    private static final ExportExecutors INSTANCE = new ExportExecutors();
+
+    // Executors.newVirtualThreadPerTaskExecutor() of Java 21, null on older runtimes
+    private static final Method VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private boolean virtualThreads = false;
+
+    private boolean unsupportedWarningLogged = false;
+
+    private int cpuThreads = Runtime.getRuntime().availableProcessors();
+
+    private ThreadPoolExecutor cpuExecutor;
+
+    @FunctionalInterface
+    public interface CpuTask {
+        void run() throws IOException;
+    }
+
+    private ExportExecutors() {
+    }
+
+    public static ExportExecutors getInstance() {
+        return INSTANCE;
+    }
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true, if the runtime supports virtual threads
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * Configure the threads. The executors are shared by all exports, the plugin configures them once with the first export.
+     * 
+     * @param useVirtualThreads run blocking I/O on virtual threads, ignored if the runtime does not support them
+     * @param cpuThreadCount size of the pool for the CPU bound stages, 0 for the number of cores
+     */
+    public synchronized void configure(boolean useVirtualThreads, int cpuThreadCount) {
+        if (useVirtualThreads && !isVirtualThreadsSupported() && !unsupportedWarningLogged) {
+            log.warn("Virtual threads require Java 21 or newer, use platform threads for I/O");
+            unsupportedWarningLogged = true;
+        }
+        virtualThreads = useVirtualThreads && isVirtualThreadsSupported();
+
+        int threads = cpuThreadCount > 0 ? cpuThreadCount : Runtime.getRuntime().availableProcessors();
+        if (threads != cpuThreads) {
+            cpuThreads = threads;
+            if (cpuExecutor != null) {
+                // the maximum must never be lower than the core size
+                if (threads > cpuExecutor.getMaximumPoolSize()) {
+                    cpuExecutor.setMaximumPoolSize(threads);
+                    cpuExecutor.setCorePoolSize(threads);
+                } else {
+                    cpuExecutor.setCorePoolSize(threads);
+                    cpuExecutor.setMaximumPoolSize(threads);
+                }
+            }
+        }
+    }
+
+    /**
+     * Create an executor for blocking I/O. It must be shut down by the caller.
+     * 
+     * @param name prefix of the thread names, only used for platform threads
+     * @param platformThreads number of threads if virtual threads are not used, virtual threads are created per task
+     * @return a new executor
+     */
+    public ExecutorService newIoExecutor(String name, int platformThreads) {
+        synchronized (this) {
+            if (virtualThreads) {
+                try {
+                    return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    log.warn("Cannot create virtual threads, use platform threads", e);
+                }
+            }
+        }
+        return Executors.newFixedThreadPool(Math.max(1, platformThreads), createThreadFactory(name));
+    }
+
+    /**
+     * Run a CPU bound task on the shared pool and wait for it. The task uses the watchdog of the calling export, if the export is aborted
+     * while it waits, the task is interrupted. A running task is awaited before this method returns, so the task never writes into streams
+     * that the caller closes afterwards.
+     * 
+     * @param task e.g. decode, scale and encode an image
+     * @throws IOException exception of the task, or InterruptedIOException if the calling thread was interrupted
+     */
+    public void runCpuBound(CpuTask task) throws IOException {
+        ExportWatchdog.Watch watch = ExportWatchdog.current();
+        // set by the task when it starts, or by the caller when the task is cancelled before it started
+        AtomicBoolean claimed = new AtomicBoolean();
+        CountDownLatch finished = new CountDownLatch(1);
+        Future<Void> result = getCpuExecutor().submit(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try (ExportWatchdog.Registration registration = watch.bind()) {
+                task.run();
+            } finally {
+                finished.countDown();
+            }
+            return null;
+        });
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            result.cancel(true);
+            if (!claimed.compareAndSet(false, true)) {
+                // the task is running, wait until it stopped using the resources of the caller
+                awaitUninterruptibly(finished);
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(watch.isAborted() ? watch.getAbortReason() : "the export was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized ExecutorService getCpuExecutor() {
+        if (cpuExecutor == null) {
+            ThreadFactory threadFactory = createThreadFactory("heris-cpu");
+            cpuExecutor = new ThreadPoolExecutor(cpuThreads, cpuThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> threadFactory.newThread(() -> {
+                        try {
+                            r.run();
+                        } finally {
+                            // idle threads time out, free the native resources of their writer
+                            JpegEncoder.release();
+                        }
+                    }));
+            cpuExecutor.allowCoreThreadTimeOut(true);
+        }
+        return cpuExecutor;
+    }
+
+    private static ThreadFactory createThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
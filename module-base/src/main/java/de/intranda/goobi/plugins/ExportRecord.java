@@ -0,0 +1,103 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import lombok.Getter;
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.Fileformat;
+import ugh.dl.Metadata;
+import ugh.dl.Reference;
+import ugh.exceptions.PreferencesException;
+
+/**
+ * The data of a record that is needed for the export: the metadata of the main element and the pages with their photographs. It is created
+ * either from the UGH object model or directly from the metadata file by the {@link MetsRecordReader}.
+ */
+@Getter
+public class ExportRecord {
+
+    public static final String HERIS_ID = "HerisID";
+    public static final String SHELFMARK = "shelfmarksource";
+    public static final String PHOTOGRAPH = "Photograph";
+
+    private final ExportElement logical;
+
+    private final List<ExportPage> pages;
+
+    public ExportRecord(ExportElement logical, List<ExportPage> pages) {
+        this.logical = logical;
+        this.pages = Collections.unmodifiableList(pages);
+    }
+
+    public String getHerisId() {
+        return logical.getFirstValue(HERIS_ID);
+    }
+
+    /**
+     * Extract the export data from a complete UGH object model
+     *
+     * @param fileformat the metadata of the process
+     * @param metadataNames metadata types to keep, null to keep all
+     * @return the record
+     * @throws PreferencesException
+     */
+    public static ExportRecord fromFileformat(Fileformat fileformat, Set<String> metadataNames) throws PreferencesException {
+        DigitalDocument digitalDocument = fileformat.getDigitalDocument();
+        ExportElement logical = toElement(digitalDocument.getLogicalDocStruct(), metadataNames);
+
+        List<ExportPage> pages = new ArrayList<>();
+        List<DocStruct> physicalPages = digitalDocument.getPhysicalDocStruct().getAllChildren();
+        if (physicalPages != null) {
+            for (DocStruct page : physicalPages) {
+                DocStruct photograph = null;
+                List<Reference> refs = page.getAllFromReferences();
+                if (refs != null) {
+                    for (Reference ref : refs) {
+                        if (PHOTOGRAPH.equals(ref.getSource().getType().getName())) {
+                            photograph = ref.getSource();
+                        }
+                    }
+                }
+                String imageName = page.getImageName() == null ? null : Paths.get(page.getImageName()).getFileName().toString();
+                pages.add(new ExportPage(imageName, photograph == null ? null : toElement(photograph, metadataNames)));
+            }
+        }
+        return new ExportRecord(logical, pages);
+    }
+
+    private static ExportElement toElement(DocStruct docStruct, Set<String> metadataNames) {
+        ExportElement element = new ExportElement(docStruct.getType().getName());
+        if (docStruct.getAllMetadata() != null) {
+            for (Metadata md : docStruct.getAllMetadata()) {
+                String name = md.getType().getName();
+                if (metadataNames == null || metadataNames.contains(name)) {
+                    element.addMetadata(name, md.getValue());
+                }
+            }
+        }
+        return element;
+    }
+}
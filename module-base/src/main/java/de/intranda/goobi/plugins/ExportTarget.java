@@ -0,0 +1,87 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Destination of a HERIS export. Each record is published into a sub folder named after its HERIS ID.
+ */
+public interface ExportTarget {
+
+    /**
+     * open the connection to the target
+     * 
+     * @throws IOException
+     */
+    void connect() throws IOException;
+
+    /**
+     * Download the JSON file of a previous export into the staging area, using the name &lt;HERIS-ID&gt;.json
+     * 
+     * @param herisId HERIS ID of the record
+     * @param staging staging area of the export
+     * @return true if the file was downloaded, false if the record was not exported before
+     * @throws IOException
+     */
+    boolean downloadExistingJsonFile(String herisId, StagingArea staging) throws IOException;
+
+    /**
+     * Publish all files of the staging area into the folder of the record. Images of previous exports that are not part of the staging area get
+     * deleted. The staging area must not be changed.
+     * 
+     * @param herisId HERIS ID of the record
+     * @param staging staging area containing the images and the JSON file
+     * @throws IOException
+     */
+    void publish(String herisId, StagingArea staging) throws IOException;
+
+    /**
+     * Record the remote operations of this target as spans of the given trace
+     * 
+     * @param trace trace of the export
+     */
+    void setTrace(ExportTrace trace);
+
+    /**
+     * close the connection
+     */
+    void close();
+
+    /**
+     * Unblock a transfer that is running on another thread, e.g. by closing the socket. Called by the {@link ExportWatchdog} when the export is
+     * aborted, {@link #close()} is still called by the export afterwards.
+     */
+    default void abort() {
+        // local operations are interrupted between the files
+    }
+
+    /**
+     * Check if a previously exported file is an image that is not part of the current export anymore
+     * 
+     * @param filename name of the file in the target folder
+     * @param localData names of the files of the current export
+     * @return true if the file must be deleted
+     */
+    static boolean isStaleImage(String filename, List<String> localData) {
+        String lowerCaseName = filename.toLowerCase();
+        return (lowerCaseName.endsWith("tif") || lowerCaseName.endsWith("jpg")) && !localData.contains(filename);
+    }
+}
@@ -0,0 +1,215 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.json.JSONObject;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Records the stages of a single export as spans and writes them in the Chrome trace event format, which can be opened in chrome://tracing,
+ * Perfetto or speedscope. Use {@link #DISABLED} if tracing is switched off, its spans do not record anything.
+ */
+@Log4j2
+public class ExportTrace {
+
+    public static final ExportTrace DISABLED = new ExportTrace(false);
+
+    private static final Span NO_SPAN = new Span(null, null, null);
+
+    private final boolean enabled;
+
+    // start of the trace, timestamps are written relative to it
+    private final long startNanos = System.nanoTime();
+
+    private final long startMillis = System.currentTimeMillis();
+
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+
+    private ExportTrace(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return a new, enabled trace
+     */
+    public static ExportTrace create() {
+        return new ExportTrace(true);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Start a span in the current thread. It ends when it is closed, use it in a try-with-resources block.
+     *
+     * @param name name of the span, e.g. the stage of the export
+     * @param category category, e.g. image or sftp
+     * @return the span
+     */
+    public Span start(String name, String category) {
+        if (!enabled) {
+            return NO_SPAN;
+        }
+        return new Span(this, name, category);
+    }
+
+    /**
+     * A running span. Bytes, outcome and additional arguments are written into the args of the trace event.
+     */
+    public static class Span implements AutoCloseable {
+
+        private final ExportTrace trace;
+        private final String name;
+        private final String category;
+        private final long start;
+        private final Thread thread;
+        private Map<String, Object> args;
+        private String outcome = "ok";
+        private boolean closed;
+
+        private Span(ExportTrace trace, String name, String category) {
+            this.trace = trace;
+            this.name = name;
+            this.category = category;
+            this.start = trace == null ? 0 : System.nanoTime();
+            this.thread = trace == null ? null : Thread.currentThread();
+        }
+
+        public Span bytes(long bytes) {
+            return arg("bytes", bytes);
+        }
+
+        public Span arg(String key, Object value) {
+            if (trace != null) {
+                if (args == null) {
+                    args = new HashMap<>();
+                }
+                args.put(key, value);
+            }
+            return this;
+        }
+
+        public Span outcome(String outcome) {
+            if (trace != null) {
+                this.outcome = outcome;
+            }
+            return this;
+        }
+
+        public Span fail(Exception e) {
+            return outcome("error: " + e.getMessage());
+        }
+
+        @Override
+        public void close() {
+            if (trace == null || closed) {
+                return;
+            }
+            closed = true;
+            trace.events.add(new Event(name, category, start, System.nanoTime() - start, thread.getId(), thread.getName(), outcome, args));
+        }
+    }
+
+    private static class Event {
+        private final String name;
+        private final String category;
+        private final long start;
+        private final long duration;
+        private final long threadId;
+        private final String threadName;
+        private final String outcome;
+        private final Map<String, Object> args;
+
+        private Event(String name, String category, long start, long duration, long threadId, String threadName, String outcome,
+                Map<String, Object> args) {
+            this.name = name;
+            this.category = category;
+            this.start = start;
+            this.duration = duration;
+            this.threadId = threadId;
+            this.threadName = threadName;
+            this.outcome = outcome;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Write all closed spans as a JSON file in the Chrome trace event format
+     *
+     * @param file destination
+     * @param label name of the trace, shown as process name in the viewer
+     * @throws IOException
+     */
+    public void write(Path file, String label) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Map<Long, String> threadNames = new HashMap<>();
+        try (Writer w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            w.write("{\"displayTimeUnit\":\"ms\",\"otherData\":");
+            w.write(new JSONObject().put("label", label).put("startTime", startMillis).toString());
+            w.write(",\"traceEvents\":[\n");
+            w.write(new JSONObject().put("name", "process_name").put("ph", "M").put("pid", 1).put("args", new JSONObject().put("name", label))
+                    .toString());
+            for (Event event : events) {
+                JSONObject args = new JSONObject();
+                if (event.args != null) {
+                    event.args.forEach(args::put);
+                }
+                args.put("outcome", event.outcome);
+                args.put("thread", event.threadName);
+                JSONObject json = new JSONObject().put("name", event.name)
+                        .put("cat", event.category)
+                        .put("ph", "X")
+                        .put("ts", (event.start - startNanos) / 1000)
+                        .put("dur", event.duration / 1000)
+                        .put("pid", 1)
+                        .put("tid", event.threadId)
+                        .put("args", args);
+                w.write(",\n");
+                w.write(json.toString());
+                threadNames.putIfAbsent(event.threadId, event.threadName);
+            }
+            for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+                w.write(",\n");
+                w.write(new JSONObject().put("name", "thread_name")
+                        .put("ph", "M")
+                        .put("pid", 1)
+                        .put("tid", thread.getKey())
+                        .put("args", new JSONObject().put("name", thread.getValue()))
+                        .toString());
+            }
+            w.write("\n]}\n");
+        }
+        log.debug("Wrote {} trace events to {}", events.size(), file);
+    }
+}
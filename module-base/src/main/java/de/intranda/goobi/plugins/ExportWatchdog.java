@@ -0,0 +1,406 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Aborts exports that exceed their deadlines or whose transfers stall. Each export registers a {@link Watch} on its own thread, a single
+ * daemon thread checks all watches periodically. An aborted export is interrupted, and the registered abort actions are called to unblock
+ * operations that ignore interrupts, e.g. by closing the connection or aborting an image reader. The export thread notices the abort with
+ * {@link Watch#checkCancelled()}. Stages are kept per thread, so targets that are published at the same time each have their own stages and
+ * transfers.
+ */
+@Log4j2
+public final class ExportWatchdog {
+
+    static final long CHECK_INTERVAL_MILLIS = 500;
+
+    private static final ExportWatchdog INSTANCE = new ExportWatchdog(CHECK_INTERVAL_MILLIS);
+
+    // used on threads without a registered export
+    private static final Watch NO_WATCH = new Watch(null, null, "", ExportDeadlines.NONE);
+
+    private static final ThreadLocal<Watch> CURRENT = new ThreadLocal<>();
+
+    private final Set<Watch> watches = ConcurrentHashMap.newKeySet();
+
+    // 0 disables the scheduler, the watches are only checked by calls of checkAll
+    private final long checkIntervalMillis;
+
+    private ScheduledExecutorService scheduler;
+
+    @FunctionalInterface
+    public interface Registration extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    /**
+     * @param checkIntervalMillis interval of the checks, 0 to check only on explicit calls of {@link #checkAll(long)}, e.g. in tests
+     */
+    ExportWatchdog(long checkIntervalMillis) {
+        this.checkIntervalMillis = checkIntervalMillis;
+    }
+
+    public static ExportWatchdog getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the watch of the export running on the current thread, or a watch that is never aborted
+     */
+    public static Watch current() {
+        Watch watch = CURRENT.get();
+        return watch == null ? NO_WATCH : watch;
+    }
+
+    /**
+     * Watch the export running on the current thread until the returned watch is closed
+     * 
+     * @param name name of the export, e.g. the HERIS ID
+     * @param deadlines limits of the export
+     * @return the watch
+     */
+    public Watch start(String name, ExportDeadlines deadlines) {
+        Watch watch = new Watch(this, Thread.currentThread(), name, deadlines);
+        CURRENT.set(watch);
+        // registered in any case, so the export can be cancelled
+        watches.add(watch);
+        if (deadlines.isEnabled()) {
+            startScheduler();
+        }
+        return watch;
+    }
+
+    /**
+     * Abort all running exports with the given name
+     * 
+     * @param name name of the export
+     * @return true, if an export was found
+     */
+    public boolean cancel(String name) {
+        boolean found = false;
+        for (Watch watch : watches) {
+            if (watch.name.equals(name)) {
+                watch.abort("the export was cancelled");
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    private synchronized void startScheduler() {
+        if (scheduler == null && checkIntervalMillis > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "heris-export-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(() -> checkAll(System.nanoTime()), checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Check the deadlines and the throughput of all running exports
+     * 
+     * @param now current value of {@link System#nanoTime()}
+     */
+    void checkAll(long now) {
+        for (Watch watch : watches) {
+            try {
+                watch.check(now);
+            } catch (RuntimeException e) {
+                log.error("Cannot check export {}", watch.name, e);
+            }
+        }
+    }
+
+    /**
+     * Deadlines and transfer progress of a single export
+     */
+    public static final class Watch implements AutoCloseable {
+
+        private final ExportWatchdog watchdog;
+        private final Thread thread;
+        @Getter
+        private final String name;
+        private final ExportDeadlines deadlines;
+        private final long startTime = System.nanoTime();
+
+        private final List<Runnable> abortActions = new CopyOnWriteArrayList<>();
+
+        // innermost open stage of each thread, e.g. of the export thread and of the threads publishing to several targets at the same time
+        private final Map<Thread, Stage> stages = new ConcurrentHashMap<>();
+
+        private boolean closed;
+
+        @Getter
+        private volatile String abortReason;
+
+        private Watch(ExportWatchdog watchdog, Thread thread, String name, ExportDeadlines deadlines) {
+            this.watchdog = watchdog;
+            this.thread = thread;
+            this.name = name;
+            this.deadlines = deadlines;
+        }
+
+        /**
+         * Enter a stage on the current thread, the stage timeout starts now
+         * 
+         * @param stageName name of the stage, as used in the configuration
+         * @return closing it returns to the previous stage of the thread
+         */
+        public Registration stage(String stageName) {
+            return enter(stageName, false);
+        }
+
+        /**
+         * Enter a stage that transfers data on the current thread, the throughput is measured with the bytes reported by {@link #progress(long)}
+         * on this thread
+         * 
+         * @param stageName name of the stage, as used in the configuration
+         * @return closing it returns to the previous stage of the thread
+         */
+        public Registration transfer(String stageName) {
+            return enter(stageName, true);
+        }
+
+        private Registration enter(String stageName, boolean transfer) {
+            if (thread == null) {
+                return () -> {
+                };
+            }
+            Thread current = Thread.currentThread();
+            Stage parent = stages.get(current);
+            Stage stage = new Stage(stageName, transfer, parent);
+            if (parent != null) {
+                // e.g. the time spent in a nested stage does not count for the throughput of the transfer
+                parent.children.incrementAndGet();
+            }
+            stages.put(current, stage);
+            return () -> {
+                if (parent == null) {
+                    stages.remove(current, stage);
+                } else {
+                    stages.replace(current, stage, parent);
+                    parent.children.incrementAndGet();
+                }
+            };
+        }
+
+        /**
+         * Use this watch on the current thread as well, e.g. on a worker thread of the export
+         * 
+         * @return closing it restores the previous watch of the thread
+         */
+        public Registration bind() {
+            Watch previous = CURRENT.get();
+            CURRENT.set(this);
+            return () -> {
+                if (previous == null) {
+                    CURRENT.remove();
+                } else {
+                    CURRENT.set(previous);
+                }
+            };
+        }
+
+        /**
+         * @param bytes number of bytes transferred by the current thread since the last call
+         */
+        public void progress(long bytes) {
+            for (Stage stage = stages.get(Thread.currentThread()); stage != null; stage = stage.parent) {
+                if (stage.transfer) {
+                    stage.bytes.addAndGet(bytes);
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Register an action that is called when the export is aborted. It is called on the watchdog thread.
+         * 
+         * @param action e.g. close a connection
+         * @return closing it removes the action
+         */
+        public Registration onAbort(Runnable action) {
+            if (thread == null) {
+                return () -> {
+                };
+            }
+            abortActions.add(action);
+            if (abortReason != null) {
+                // aborted before the action was registered
+                action.run();
+            }
+            return () -> abortActions.remove(action);
+        }
+
+        public boolean isAborted() {
+            return abortReason != null;
+        }
+
+        /**
+         * @throws InterruptedIOException if the export was aborted or the thread was interrupted
+         */
+        public void checkCancelled() throws InterruptedIOException {
+            if (abortReason != null) {
+                throw new InterruptedIOException(abortReason);
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("the export was interrupted");
+            }
+        }
+
+        private void check(long now) {
+            if (abortReason != null) {
+                return;
+            }
+            long exportTimeout = deadlines.getExportTimeout();
+            if (exportTimeout > 0 && now - startTime > TimeUnit.SECONDS.toNanos(exportTimeout)) {
+                Stage exportStage = stages.get(thread);
+                String stageName = exportStage == null ? null : exportStage.name;
+                abort("the export exceeded its deadline of " + exportTimeout + " seconds in stage " + stageName);
+                return;
+            }
+            // all open stages of all threads, the outer stages keep running while a nested stage is open
+            for (Stage innermost : stages.values()) {
+                for (Stage stage = innermost; stage != null; stage = stage.parent) {
+                    long stageTimeout = deadlines.getStageTimeout(stage.name);
+                    if (stageTimeout > 0 && now - stage.start > TimeUnit.SECONDS.toNanos(stageTimeout)) {
+                        abort("stage " + stage.name + " exceeded its deadline of " + stageTimeout + " seconds");
+                        return;
+                    }
+                }
+            }
+            // only transfers without a nested stage are measured
+            for (Stage innermost : stages.values()) {
+                if (innermost.transfer && !checkThroughput(now, innermost)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return false if the transfer stalled and the export was aborted
+         */
+        private boolean checkThroughput(long now, Stage stage) {
+            long minThroughput = deadlines.getMinThroughput();
+            long stallTime = TimeUnit.SECONDS.toNanos(deadlines.getStallTime());
+            if (minThroughput <= 0 || stallTime <= 0) {
+                return true;
+            }
+            long bytes = stage.bytes.get();
+            long children = stage.children.get();
+            if (stage.intervalChildren != children) {
+                // the transfer started or continues after a nested stage
+                stage.intervalChildren = children;
+                stage.intervalStart = now;
+                stage.intervalBytes = bytes;
+                return true;
+            }
+            long elapsed = now - stage.intervalStart;
+            if (elapsed < stallTime) {
+                return true;
+            }
+            long throughput = (bytes - stage.intervalBytes) * TimeUnit.SECONDS.toNanos(1) / elapsed;
+            if (throughput < minThroughput) {
+                abort("the transfer in stage " + stage.name + " stalled, " + throughput + " bytes per second during the last "
+                        + TimeUnit.NANOSECONDS.toSeconds(elapsed) + " seconds, the minimum is " + minThroughput);
+                return false;
+            }
+            stage.intervalStart = now;
+            stage.intervalBytes = bytes;
+            return true;
+        }
+
+        private synchronized void abort(String reason) {
+            if (thread == null || closed || abortReason != null) {
+                return;
+            }
+            abortReason = reason;
+            log.warn("Abort export {}: {}", name, reason);
+            for (Runnable action : abortActions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    log.warn("Abort action of export {} failed", name, e);
+                }
+            }
+            thread.interrupt();
+        }
+
+        /**
+         * Stop watching the export. The interrupt of an abort is cleared, so the thread can be used for the next task.
+         */
+        @Override
+        public synchronized void close() {
+            if (thread == null || closed) {
+                return;
+            }
+            closed = true;
+            watchdog.watches.remove(this);
+            if (CURRENT.get() == this) {
+                CURRENT.remove();
+            }
+            if (abortReason != null && Thread.currentThread() == thread) {
+                Thread.interrupted();
+            }
+        }
+
+        /**
+         * Open stage of a single thread
+         */
+        private static final class Stage {
+            private final String name;
+            private final boolean transfer;
+            private final long start = System.nanoTime();
+            // enclosing stage on the same thread
+            private final Stage parent;
+            // bytes reported while this is the innermost transfer of its thread
+            private final AtomicLong bytes = new AtomicLong();
+            // incremented whenever a nested stage is entered or left, each part of the transfer is measured separately
+            private final AtomicLong children = new AtomicLong();
+
+            // current throughput interval, only used by the watchdog thread
+            private long intervalChildren = -1;
+            private long intervalStart;
+            private long intervalBytes;
+
+            private Stage(String name, boolean transfer, Stage parent) {
+                this.name = name;
+                this.transfer = transfer;
+                this.parent = parent;
+            }
+        }
+    }
+}
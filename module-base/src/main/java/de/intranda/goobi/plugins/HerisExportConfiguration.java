@@ -0,0 +1,165 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.Process;
+
+import de.sub.goobi.helper.exceptions.SwapException;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Immutable configuration of an export, read from the plugin configuration for the project of the process. Instances are created with the
+ * builder.
+ */
+@Getter
+public class HerisExportConfiguration {
+
+    // name of the Processproperty that holds information of all selected images
+    private final String propertyName;
+
+    private final String jsonRootElementName;
+
+    private final List<JsonField> jsonFields;
+
+    // creates a new target for each export, null if the data is not exported
+    private final Supplier<ExportTarget> exportTargetFactory;
+
+    // keep staged files in memory instead of a temporary folder
+    private final boolean stagingInMemory;
+
+    // maximum number of bytes kept in memory by all exports
+    private final long maxStagingMemory;
+
+    // parent folder of the temporary folders, null for the default temp folder
+    private final String stagingFolder;
+
+    // read the metadata file with the streaming reader instead of UGH
+    private final boolean fastMetadataReader;
+
+    // metadata types used by the export
+    private final Set<String> requiredMetadata;
+
+    // record a trace of each export
+    private final boolean traceEnabled;
+
+    // folder for the trace files, null for the process folder
+    private final String traceFolder;
+
+    // name of the scaling engine, the derivatives of each engine are cached separately
+    private final String scalingEngine;
+
+    // creates the jpeg derivatives
+    private final ImageScaler imageScaler;
+
+    // time limits of each export
+    private final ExportDeadlines deadlines;
+
+    // use derivatives rendered in advance
+    private final boolean preRenderEnabled;
+
+    // parent folder of the derivative folders of the processes, null for the process folder
+    private final String derivativeFolder;
+
+    @Builder
+    private HerisExportConfiguration(String propertyName, String jsonRootElementName, List<JsonField> jsonFields,
+            Supplier<ExportTarget> exportTargetFactory, boolean stagingInMemory, long maxStagingMemory, String stagingFolder,
+            boolean fastMetadataReader, boolean traceEnabled, String traceFolder, String scalingEngine, ImageScaler imageScaler,
+            ExportDeadlines deadlines, boolean preRenderEnabled, String derivativeFolder) {
+        this.propertyName = propertyName;
+        this.jsonRootElementName = jsonRootElementName;
+        this.jsonFields = Collections.unmodifiableList(jsonFields);
+        this.exportTargetFactory = exportTargetFactory;
+        this.stagingInMemory = stagingInMemory;
+        this.maxStagingMemory = maxStagingMemory;
+        this.stagingFolder = stagingFolder;
+        this.fastMetadataReader = fastMetadataReader;
+        this.traceEnabled = traceEnabled;
+        this.traceFolder = traceFolder;
+        this.scalingEngine = scalingEngine;
+        this.imageScaler = imageScaler;
+        this.deadlines = deadlines;
+        this.preRenderEnabled = preRenderEnabled;
+        this.derivativeFolder = derivativeFolder;
+
+        Set<String> metadata = new HashSet<>();
+        metadata.add(ExportRecord.HERIS_ID);
+        metadata.add(ExportRecord.SHELFMARK);
+        for (JsonField field : jsonFields) {
+            if ("metadata".equals(field.getType()) && StringUtils.isNotBlank(field.getValue())) {
+                metadata.add(field.getValue());
+            }
+        }
+        this.requiredMetadata = Collections.unmodifiableSet(metadata);
+    }
+
+    /**
+     * @param herisId HERIS ID of the record, used as prefix of temporary folders
+     * @return a new, empty staging area
+     * @throws IOException
+     */
+    public StagingArea createStagingArea(String herisId) throws IOException {
+        Path parentFolder = StringUtils.isBlank(stagingFolder) ? null : Paths.get(stagingFolder);
+        if (stagingInMemory) {
+            return new MemoryStagingArea(maxStagingMemory, parentFolder, herisId);
+        }
+        return new DiskStagingArea(parentFolder, herisId);
+    }
+
+    /**
+     * @return a new trace if tracing is enabled, otherwise the disabled trace
+     */
+    public ExportTrace createTrace() {
+        return traceEnabled ? ExportTrace.create() : ExportTrace.DISABLED;
+    }
+
+    /**
+     * @param process Goobi process
+     * @return the prepared derivatives of the process for the configured scaling engine, null if pre-rendering is disabled
+     * @throws IOException
+     * @throws SwapException
+     */
+    public DerivativeCache getDerivativeCache(Process process) throws IOException, SwapException {
+        if (!preRenderEnabled) {
+            return null;
+        }
+        if (StringUtils.isBlank(derivativeFolder)) {
+            return new DerivativeCache(Paths.get(process.getProcessDataDirectory(), "heris_derivatives", scalingEngine));
+        }
+        return new DerivativeCache(Paths.get(derivativeFolder, String.valueOf(process.getId()), scalingEngine));
+    }
+
+    /**
+     * @return a new, not yet connected export target or null, if no target is configured
+     */
+    public ExportTarget createExportTarget() {
+        return exportTargetFactory == null ? null : exportTargetFactory.get();
+    }
+}
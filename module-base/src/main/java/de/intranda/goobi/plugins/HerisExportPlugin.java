@@ -19,31 +19,37 @@
 package de.intranda.goobi.plugins;
 
 import java.awt.Dimension;
-import java.awt.image.RenderedImage;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.commons.configuration.HierarchicalConfiguration;
 import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
 import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
 import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.apache.commons.lang.StringUtils;
 import org.goobi.beans.GoobiProperty;
 import org.goobi.beans.Process;
@@ -55,24 +61,17 @@ import org.goobi.production.plugin.interfaces.IPlugin;
 import org.json.JSONObject;
 
 import de.sub.goobi.config.ConfigPlugins;
-import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.helper.Helper;
 import de.sub.goobi.helper.StorageProvider;
 import de.sub.goobi.helper.exceptions.DAOException;
 import de.sub.goobi.helper.exceptions.ExportFileException;
 import de.sub.goobi.helper.exceptions.SwapException;
 import de.sub.goobi.helper.exceptions.UghHelperException;
-import de.unigoettingen.sub.commons.contentlib.exceptions.ContentLibException;
-import de.unigoettingen.sub.commons.contentlib.imagelib.ImageManager;
-import de.unigoettingen.sub.commons.contentlib.imagelib.JpegInterpreter;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.log4j.Log4j2;
 import net.xeoh.plugins.base.annotations.PluginImplementation;
-import ugh.dl.DocStruct;
 import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
-import ugh.dl.Reference;
 import ugh.exceptions.DocStructHasNoTypeException;
 import ugh.exceptions.MetadataTypeNotAllowedException;
 import ugh.exceptions.PreferencesException;
@@ -88,43 +87,34 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
 
     private static final long serialVersionUID = 8034087147444531960L;
 
-    private String title = "intranda_export_heris";
+    // maximum size of the exported images
+    static final Dimension DERIVATIVE_SIZE = new Dimension(600, 600);
+
+    private static final DateTimeFormatter TRACE_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+
+    // the shared resources are configured by the first export
+    private static boolean sharedResourcesConfigured = false;
+
+    // name of the plugin and of its configuration file
+    static final String PLUGIN_TITLE = "intranda_export_heris";
+
+    private String title = PLUGIN_TITLE;
 
     private PluginType type = PluginType.Export;
 
     private Step step;
 
-    private List<String> problems;
+    // problems of the most recent export of each thread, exports of several processes can run on this instance at the same time
+    private final transient ThreadLocal<List<String>> problems = ThreadLocal.withInitial(ArrayList::new);
 
     private boolean exportFulltext;
     private boolean exportImages;
 
-    // name of the Processproperty that holds information of all selected images
-    private String propertyName;
-
-    private transient List<JsonField> jsonFields;
-    private String jsonRootElementName;
-
     // set this to false in order to keep temp files (for junit tests)
     private boolean cleanupTempFiles = true;
 
-    private transient Path tempDir;
-
-    // sftp connection
-    boolean useSftp = false;
-    private String username;
-    private String password;
-    private String keyfile;
-    private String hostname;
-    private String knownHosts;
-    private String ftpFolder;
-    private int port = 22;
-    private Properties sftpConfig = new Properties();
-    private transient SftpClient utils = null;
-
-    private SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS");
-
-    private Date exportDate = new Date();
+    // temp folder of the most recent export of each thread (for junit tests)
+    private final transient ThreadLocal<Path> tempDir = new ThreadLocal<>();
 
     @Override
     public boolean startExport(Process process) throws IOException, InterruptedException, DocStructHasNoTypeException, PreferencesException,
@@ -138,76 +128,210 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
     public boolean startExport(Process process, String destination) throws IOException, InterruptedException, DocStructHasNoTypeException,
             PreferencesException, WriteException, MetadataTypeNotAllowedException, ExportFileException, UghHelperException, ReadException,
             SwapException, DAOException, TypeNotAllowedForParentException {
-        problems = new ArrayList<>();
-
+        problems.set(new ArrayList<>());
+        tempDir.remove();
         // read configuration file
-        readConfiguration(process);
+        HerisExportConfiguration configuration = readConfiguration(process);
+        ExportTrace trace = configuration.createTrace();
 
         // open metadata file
-        Fileformat fileformat = process.readMetadataFile();
-        DocStruct logical = fileformat.getDigitalDocument().getLogicalDocStruct();
-        List<DocStruct> pages = fileformat.getDigitalDocument().getPhysicalDocStruct().getAllChildren();
+        ExportRecord record;
+        try (ExportTrace.Span span = trace.start("read metadata", "metadata")) {
+            record = readRecord(process, configuration);
+        }
 
         // get heris id
-        String herisId = null;
-        for (Metadata md : logical.getAllMetadata()) {
-            if ("HerisID".equals(md.getType().getName())) {
-                herisId = md.getValue();
-                break;
-            }
-        }
+        String herisId = record.getHerisId();
         if (StringUtils.isBlank(herisId)) {
             Helper.setFehlerMeldung("The record doesn't contain a HERIS ID, abort");
             return false;
         }
 
         // find the images to export
-        Map<String, String> selectedImagesList = new HashMap<>();
-        GoobiProperty property = null;
-        for (GoobiProperty p : process.getEigenschaften()) {
-            if (propertyName.equals(p.getPropertyName())) {
-                property = p;
-                break;
-            }
-        }
-        if (property != null) {
-            String propertyValue = property.getPropertyValue();
-            log.debug("propertyValue = " + propertyValue);
-            // remove { and } from both ends
-            String reducedValue = propertyValue.substring(1, propertyValue.length() - 1);
-            String[] items = reducedValue.split(",");
-            for (String item : items) {
-                String[] itemParts = item.split(":");
-                String imageName = itemParts[0];
-                // remove " from both ends
-                String reducedImageName = imageName.substring(1, imageName.length() - 1);
-                selectedImagesList.put(reducedImageName, "");
-            }
-        } else {
+        GoobiProperty property = findProperty(process, configuration.getPropertyName());
+        if (property == null) {
             Helper.setFehlerMeldung("The record has no images selected, abort");
             // property not set, abort
             return false;
         }
+        Map<String, String> selectedImagesList = parseSelectedImages(property.getPropertyValue());
         if (selectedImagesList.isEmpty()) {
             // no image selected, abort
             Helper.setFehlerMeldung("The record has no images selected, abort");
             return false;
         }
 
-        tempDir = Files.createTempDirectory(herisId); // NOSONAR temp dir is safe here, it gets deleted at the end
+        // exports of the same record must not run at the same time, identical requests share the result
+        String exportKey = process.getId() + ":" + herisId + ":" + property.getPropertyValue();
+        ExportCoordinator.ExportResult result = ExportCoordinator.getInstance().run(herisId, exportKey, waiting -> {
+            // render the derivatives while another export of the record is running
+            preRender(process, configuration, selectedImagesList.keySet(), waiting);
+        }, () -> {
+            boolean success = exportRecord(process, configuration, trace, herisId, selectedImagesList, record);
+            return new ExportCoordinator.ExportResult(success, problems.get());
+        });
+        // a request that joined a running export reports the problems of that export
+        problems.set(new ArrayList<>(result.getProblems()));
+        return result.isSuccess();
+    }
+
+    private static void preRender(Process process, HerisExportConfiguration configuration, Set<String> imageNames, BooleanSupplier waiting)
+            throws InterruptedIOException {
+        try {
+            DerivativePreRenderer.getInstance().preRender(process, configuration, imageNames, waiting);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException | SwapException e) {
+            // the export renders the derivatives itself
+            log.warn("Cannot pre-render the derivatives of process {}", process.getId(), e);
+        }
+    }
+
+    /**
+     * @return problems of the most recent export that was started on the calling thread
+     */
+    @Override
+    public List<String> getProblems() {
+        return problems.get();
+    }
+
+    /**
+     * @return temp folder of the most recent export that was started on the calling thread
+     */
+    public Path getTempDir() {
+        return tempDir.get();
+    }
+
+    private static GoobiProperty findProperty(Process process, String propertyName) {
+        for (GoobiProperty p : process.getEigenschaften()) {
+            if (propertyName.equals(p.getPropertyName())) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read the images selected in the process property
+     * 
+     * @param process Goobi process
+     * @param propertyName name of the property that holds the selection
+     * @return map with the selected image names as keys and empty values, null if the property does not exist
+     */
+    static Map<String, String> readSelectedImages(Process process, String propertyName) {
+        GoobiProperty property = findProperty(process, propertyName);
+        return property == null ? null : parseSelectedImages(property.getPropertyValue());
+    }
+
+    private static Map<String, String> parseSelectedImages(String propertyValue) {
+        Map<String, String> selectedImagesList = new HashMap<>();
+        log.debug("propertyValue = " + propertyValue);
+        // remove { and } from both ends
+        String reducedValue = propertyValue.substring(1, propertyValue.length() - 1);
+        String[] items = reducedValue.split(",");
+        for (String item : items) {
+            String[] itemParts = item.split(":");
+            String imageName = itemParts[0];
+            // remove " from both ends
+            String reducedImageName = imageName.substring(1, imageName.length() - 1);
+            selectedImagesList.put(reducedImageName, "");
+        }
+        return selectedImagesList;
+    }
+
+    /**
+     * Read the data of the record. The metadata file is parsed with the streaming reader if it is enabled and the file is supported by it,
+     * otherwise the complete UGH object model is created.
+     */
+    private ExportRecord readRecord(Process process, HerisExportConfiguration configuration)
+            throws ReadException, IOException, SwapException, PreferencesException {
+        if (configuration.isFastMetadataReader()) {
+            Path metadataFile = Paths.get(process.getMetadataFilePath());
+            try (InputStream in = StorageProvider.getInstance().newInputStream(metadataFile)) {
+                ExportRecord record = new MetsRecordReader(configuration.getRequiredMetadata()).read(in);
+                if (record != null) {
+                    return record;
+                }
+                log.debug("Metadata file {} is not supported by the streaming reader, use UGH", metadataFile);
+            } catch (XMLStreamException e) {
+                log.warn("Cannot read metadata file {} with the streaming reader, use UGH", metadataFile, e);
+            }
+        }
+        Fileformat fileformat = process.readMetadataFile();
+        return ExportRecord.fromFileformat(fileformat, configuration.getRequiredMetadata());
+    }
+
+    private boolean exportRecord(Process process, HerisExportConfiguration configuration, ExportTrace trace, String herisId,
+            Map<String, String> selectedImagesList, ExportRecord record) throws IOException {
+        StagingArea staging = configuration.createStagingArea(herisId);
+        ExportTarget exportTarget = configuration.createExportTarget();
+        if (exportTarget != null) {
+            exportTarget.setTrace(trace);
+        }
+        ExportWatchdog.Watch watch = ExportWatchdog.getInstance().start(herisId, configuration.getDeadlines());
+        if (exportTarget != null) {
+            // a blocked transfer does not react on the interrupt
+            watch.onAbort(exportTarget::abort);
+        }
+        ExportContext context = new ExportContext(process, herisId, configuration, LocalDateTime.now(), staging, exportTarget, trace, watch);
+        tempDir.set(staging.getFolder());
+        problems.set(context.getProblems());
+        try {
+            return exportRecord(context, selectedImagesList, record);
+        } catch (InterruptedIOException e) {
+            log.error("Export of HERIS ID {} was aborted: {}", herisId, e.getMessage());
+            context.getProblems().add(e.getMessage());
+            Helper.addMessageToProcessJournal(process.getId(), LogType.ERROR, "Heris export was aborted: " + e.getMessage());
+            return false;
+        } finally {
+            // stop watching first, this clears the interrupt of an abort
+            watch.close();
+            // always close the connection and delete the staged files, even if the export failed
+            disconnect(context);
+            if (cleanupTempFiles) {
+                staging.close();
+            } else {
+                // the files on disk are kept, but the memory is shared by all exports
+                staging.releaseMemory();
+            }
+            writeTrace(context);
+        }
+    }
+
+    private void writeTrace(ExportContext context) {
+        if (!context.getTrace().isEnabled()) {
+            return;
+        }
+        Process process = context.getProcess();
+        try {
+            String traceFolder = context.getConfiguration().getTraceFolder();
+            Path folder = StringUtils.isBlank(traceFolder) ? Paths.get(process.getProcessDataDirectory()) : Paths.get(traceFolder);
+            String filename = "heris_trace_" + context.getHerisId() + "_" + TRACE_DATE_FORMAT.format(context.getExportDate()) + ".json";
+            context.getTrace().write(folder.resolve(filename), "HERIS export " + context.getHerisId() + " (process " + process.getId() + ")");
+        } catch (IOException | SwapException e) {
+            log.error("Cannot write trace of process {}", process.getId(), e);
+        }
+    }
+
+    private boolean exportRecord(ExportContext context, Map<String, String> selectedImagesList, ExportRecord record) throws IOException {
+        Process process = context.getProcess();
+        StagingArea staging = context.getStaging();
+
+        ExportWatchdog.Watch watch = context.getWatch();
 
-        //  open sftp connection,
-        connect();
+        // open connection to the export target
+        connect(context);
+        watch.checkCancelled();
         // search for previous entry
-        Path previousData = getExistingJsonFile(herisId);
+        String previousData = getExistingJsonFile(context);
+        watch.checkCancelled();
 
         if (previousData != null) {
             // create backup file
-            Path backupFile =
-                    Paths.get(previousData.getParent().toString(), previousData.getFileName().toString() + "-" + System.currentTimeMillis());
-            Files.move(previousData, backupFile);
+            staging.rename(previousData, previousData + "-" + System.currentTimeMillis());
         }
 
+        ExportTrace.Span lookupSpan = context.getTrace().start("lookup", "metadata");
         //  first one is always the representative
         boolean isFistImage = true;
         // get photograph docstructs for those imagess
@@ -216,35 +340,27 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
         for (String image : imageNames) {
 
             Map<String, Object> metadata = new HashMap<>();
-            for (DocStruct page : pages) {
-                String pageFileName = Paths.get(page.getImageName()).getFileName().toString();
+            for (ExportPage page : record.getPages()) {
                 // comparison with filenames only
-                if (pageFileName.equals(image)) {
-                    DocStruct photograph = null;
-                    List<Reference> refs = page.getAllFromReferences();
-                    for (Reference ref : refs) {
-                        if ("Photograph".equals(ref.getSource().getType().getName())) {
-                            photograph = ref.getSource();
-                        }
-                    }
+                if (image.equals(page.getImageName())) {
+                    ExportElement photograph = page.getPhotograph();
                     String newImageName = image;
 
                     if (photograph == null) {
                         Helper.addMessageToProcessJournal(process.getId(), LogType.ERROR, "Heris export failed, unassigned pages found.");
+                        lookupSpan.outcome("unassigned page " + image).close();
 
                         return false;
                     }
 
-                    for (Metadata md : photograph.getAllMetadata()) {
-                        if ("shelfmarksource".equals(md.getType().getName())) {
-                            newImageName = md.getValue() + ".jpg";
-                        }
+                    if (photograph.hasMetadata(ExportRecord.SHELFMARK)) {
+                        newImageName = photograph.getLastValue(ExportRecord.SHELFMARK) + ".jpg";
                     }
                     selectedImagesList.put(image, newImageName);
 
                     // collect metadata (default do Document docstruct, if metadata is missing in photograph)
-                    for (JsonField jsonField : jsonFields) {
-                        Object fieldValue = getJsonFieldValue(jsonField, logical, photograph, isFistImage, image, herisId);
+                    for (JsonField jsonField : context.getConfiguration().getJsonFields()) {
+                        Object fieldValue = getJsonFieldValue(context, jsonField, record.getLogical(), photograph, isFistImage, image);
                         metadata.put(jsonField.getName(), fieldValue);
                     }
                     metadataList.add(metadata);
@@ -254,22 +370,30 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
             }
         }
 
-        // export images to tmp folder
-        exportSelectedImagesToTempFolder(process, selectedImagesList);
-        // create json file in tmp folder
-        writeJsonFile(metadataList, herisId);
-        // upload data via sftp
-        uploadData(herisId);
+        lookupSpan.arg("images", metadataList.size()).close();
 
-        // finally delete tmp folder
-        if (cleanupTempFiles) {
-            StorageProvider.getInstance().deleteDir(tempDir);
+        // export images to staging area
+        String imageFailure = exportSelectedImagesToTempFolder(context, selectedImagesList);
+        // never publish an incomplete export
+        watch.checkCancelled();
+        if (imageFailure != null) {
+            // publishing would replace or prune the images of the previous export
+            context.getProblems().add(imageFailure);
+            Helper.addMessageToProcessJournal(process.getId(), LogType.ERROR, "Heris export failed, " + imageFailure);
+            return false;
         }
-        disconnect();
-        return true;
+        // create json file in staging area
+        try (ExportTrace.Span span = context.getTrace().start("stage json", "staging")) {
+            writeJsonFile(context, metadataList);
+        }
+        // publish data to the export target
+        boolean published = uploadData(context);
+        watch.checkCancelled();
+        return published;
     }
 
-    private void writeJsonFile(List<Map<String, Object>> metadataList, String herisId) {
+    private void writeJsonFile(ExportContext context, List<Map<String, Object>> metadataList) {
+        String herisId = context.getHerisId();
         JSONObject jsonObject = new JSONObject();
 
         List<JSONObject> list = new ArrayList<>();
@@ -278,11 +402,10 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
             list.add(jo);
         }
         jsonObject.put("HERIS-ID", Integer.parseInt(herisId));
-        jsonObject.put("Aktualisierungsdatum", sdf.format(exportDate));
-        jsonObject.put(jsonRootElementName, list);
+        jsonObject.put("Aktualisierungsdatum", context.getFormattedExportDate());
+        jsonObject.put(context.getConfiguration().getJsonRootElementName(), list);
 
-        Path jsonFilePath = Paths.get(tempDir.toString(), herisId + ".json");
-        try (OutputStream out = StorageProvider.getInstance().newOutputStream(jsonFilePath)) {
+        try (OutputStream out = context.getStaging().newOutputStream(herisId + ".json")) {
             out.write(jsonObject.toString().getBytes(StandardCharsets.UTF_8));
             out.flush();
         } catch (IOException e) {
@@ -290,92 +413,106 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
         }
     }
 
-    private void exportSelectedImagesToTempFolder(Process process, Map<String, String> imagesList) {
+    /**
+     * Create the derivatives of the selected images in the staging area. The export stops at the first image that cannot be converted, the
+     * incomplete file is removed from the staging area.
+     * 
+     * @return null if all images were staged, otherwise the reason of the failure
+     * @throws InterruptedIOException if the export was aborted
+     */
+    private String exportSelectedImagesToTempFolder(ExportContext context, Map<String, String> imagesList) throws InterruptedIOException {
 
+        ExportTrace trace = context.getTrace();
+        ImageScaler imageScaler = context.getConfiguration().getImageScaler();
+        StagingArea staging = context.getStaging();
+        String imageFolder;
+        DerivativeCache cache;
         try {
-            String imageFolder = process.getImagesTifDirectory(false);
-
-            for (Entry<String, String> image : imagesList.entrySet()) {
-                Path source = Paths.get(imageFolder, image.getKey());
-                Path destination = Paths.get(tempDir.toString(), image.getValue());
-
-                //  create new jpg files, max 600x600
-                ImageManager im = null;
-                JpegInterpreter pi = null;
-                try {
-                    if (ConfigurationHelper.getInstance().useS3()) {
-                        try {
-                            URI uri = new URI(source.toString()
-                                    .replace(ConfigurationHelper.getInstance().getMetadataFolder(),
-                                            "s3://" + ConfigurationHelper.getInstance().getS3Bucket() + "/"));
-                            im = new ImageManager(uri);
-                        } catch (URISyntaxException e) {
-                            log.error(e);
-                        }
-                    } else {
-                        im = new ImageManager(source.toUri());
-                    }
-
-                    Dimension dim = new Dimension(600, 600);
-                    RenderedImage ri2 = im.scaleImageByPixel(dim, ImageManager.SCALE_TO_BOX, 0);
-                    pi = new JpegInterpreter(ri2);
-
-                    OutputStream outputFileStream = StorageProvider.getInstance().newOutputStream(destination);
-
-                    pi.writeToStream(null, outputFileStream);
-                    outputFileStream.close();
-                } catch (IOException | ContentLibException e) {
-                    log.error(e);
+            imageFolder = context.getProcess().getImagesTifDirectory(false);
+            // derivatives rendered in advance, null if pre-rendering is disabled
+            cache = context.getConfiguration().getDerivativeCache(context.getProcess());
+            if (cache != null) {
+                cache.retain(imagesList.keySet());
+            }
+        } catch (IOException | SwapException e) {
+            log.error(e);
+            return "the images cannot be read: " + e.getMessage();
+        }
 
-                } finally {
-                    if (im != null) {
-                        im.close();
+        for (Entry<String, String> image : imagesList.entrySet()) {
+            context.getWatch().checkCancelled();
+            Path source = Paths.get(imageFolder, image.getKey());
+            String destination = image.getValue();
+
+            //  create new jpg files, max 600x600
+            try (ExportWatchdog.Registration stage = context.getWatch().stage("image");
+                    ExportTrace.Span imageSpan = trace.start("image", "image").arg("file", image.getKey())) {
+                try (CountingOutputStream outputFileStream = new CountingOutputStream(staging.newOutputStream(destination))) {
+                    if (cache != null) {
+                        // render the derivative now, if it was not prepared or the master has changed since
+                        boolean prepared = cache.isCurrent(source);
+                        Path derivative = prepared ? cache.getDerivative(source) : renderDerivative(cache, source, imageScaler, trace);
+                        Files.copy(derivative, outputFileStream);
+                        imageSpan.arg("prepared", prepared);
+                    } else {
+                        // decoding and scaling are cpu bound, they run on the shared pool
+                        ExportExecutors.getInstance()
+                                .runCpuBound(() -> imageScaler.createDerivative(source, DERIVATIVE_SIZE, outputFileStream, trace));
                     }
-                    if (pi != null) {
-                        pi.close();
+                    imageSpan.bytes(outputFileStream.getByteCount());
+                } catch (IOException e) {
+                    imageSpan.fail(e);
+                    // the stream is closed already, the staged file may be empty or truncated
+                    discard(staging, destination);
+                    if (e instanceof InterruptedIOException) {
+                        throw (InterruptedIOException) e;
                     }
+                    log.error("Cannot convert image {} of process {}", image.getKey(), context.getProcess().getId(), e);
+                    return "image " + image.getKey() + " cannot be converted: " + e.getMessage();
                 }
             }
-        } catch (IOException | SwapException e) {
-            log.error(e);
         }
+        return null;
     }
 
-    private Object getJsonFieldValue(JsonField jsonField, DocStruct logical, DocStruct photograph, boolean representative, String filename,
-            String herisID) {
+    private static void discard(StagingArea staging, String filename) {
+        try {
+            staging.delete(filename);
+        } catch (IOException e) {
+            // the export is not published, the staging area gets deleted at the end
+            log.error("Cannot delete incomplete file {}", filename, e);
+        }
+    }
+
+    private static Path renderDerivative(DerivativeCache cache, Path source, ImageScaler imageScaler, ExportTrace trace) throws IOException {
+        ExportExecutors.getInstance().runCpuBound(() -> cache.render(source, imageScaler, DERIVATIVE_SIZE, trace));
+        return cache.getDerivative(source);
+    }
+
+    private Object getJsonFieldValue(ExportContext context, JsonField jsonField, ExportElement logical, ExportElement photograph,
+            boolean representative, String filename) {
 
         switch (jsonField.getType()) {
             case "static":
                 return jsonField.getValue();
             case "metadata":
-                Metadata md = null;
-                // first get metadat from photograph element
-                if (photograph != null && photograph.getAllMetadata() != null) {
-                    for (Metadata metadata : photograph.getAllMetadata()) {
-                        if (metadata.getType().getName().equals(jsonField.getValue())) {
-                            md = metadata;
-                            break;
-                        }
-                    }
+                String metadataName = jsonField.getValue();
+                // first get metadata from photograph element, if this didn't work, get it from main element
+                if (photograph != null && photograph.hasMetadata(metadataName)) {
+                    return photograph.getFirstValue(metadataName);
                 }
-                // if this didn't work, get it from main docstruct
-                if (md == null) {
-                    for (Metadata metadata : logical.getAllMetadata()) {
-                        if (metadata.getType().getName().equals(jsonField.getValue())) {
-                            md = metadata;
-                            break;
-                        }
-                    }
+                if (logical.hasMetadata(metadataName)) {
+                    return logical.getFirstValue(metadataName);
                 }
-                return md == null ? "" : md.getValue();
+                return "";
             case "filename":
                 return filename;
             case "representative":
                 return representative;
             case "date":
-                return sdf.format(exportDate);
+                return context.getFormattedExportDate();
             case "herisid":
-                return Integer.parseInt(herisID);
+                return Integer.parseInt(context.getHerisId());
             case "identifier":
             default:
                 return "";
@@ -383,18 +520,21 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
     }
 
     /**
-     * initialize private fields
+     * read the configuration for the project of the process
      * 
      * @param process Goobi process
+     * @return configuration of the export
      */
-    private void readConfiguration(Process process) {
-        SubnodeConfiguration config = getConfig(process);
+    static HerisExportConfiguration readConfiguration(Process process) {
+        XMLConfiguration xmlConfig = getXMLConfig();
+        configureSharedResources(xmlConfig);
+        SubnodeConfiguration config = getConfig(xmlConfig, process);
 
-        propertyName = config.getString("./propertyName", "");
+        String propertyName = config.getString("./propertyName", "");
 
-        jsonRootElementName = config.getString("/jsonRootElement");
+        String jsonRootElementName = config.getString("/jsonRootElement");
 
-        jsonFields = new ArrayList<>();
+        List<JsonField> jsonFields = new ArrayList<>();
 
         List<HierarchicalConfiguration> fields = config.configurationsAt("/json_format/field");
 
@@ -411,32 +551,174 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
             jsonFields.add(jf);
         }
 
-        useSftp = config.getBoolean("/sftp/@use", false);
-        username = config.getString("/sftp/username");
-        password = config.getString("/sftp/password");
-        hostname = config.getString("/sftp/hostname");
-        port = config.getInt("/sftp/port", 22);
-        keyfile = config.getString("/sftp/keyfile");
-        knownHosts = config.getString("/sftp/knownHosts", System.getProperty("user.home").concat("/.ssh/known_hosts"));
-        ftpFolder = config.getString("/sftp/sftpFolder");
+        // all active sftp blocks, the data is published to all of them at the same time
+        Map<String, Supplier<ExportTarget>> sftpTargets = new LinkedHashMap<>();
+        for (HierarchicalConfiguration sftp : config.configurationsAt("/sftp")) {
+            if (sftp.getBoolean("/@use", false)) {
+                String name = sftp.getString("/@name", sftp.getString("/hostname"));
+                if (sftpTargets.containsKey(name)) {
+                    // e.g. two folders on the same server
+                    name = name + " (" + (sftpTargets.size() + 1) + ")";
+                }
+                sftpTargets.put(name, createSftpTargetFactory(sftp));
+            }
+        }
+        int retries = config.getInt("/retry/@count", 0);
+        long retryDelay = config.getLong("/retry/@delay", 30) * 1000;
+
+        Supplier<ExportTarget> exportTargetFactory = null;
+        if (sftpTargets.size() == 1 && retries == 0) {
+            exportTargetFactory = sftpTargets.values().iterator().next();
+        } else if (!sftpTargets.isEmpty()) {
+            exportTargetFactory = () -> {
+                MultiExportTarget multiTarget = new MultiExportTarget(retries, retryDelay);
+                for (Entry<String, Supplier<ExportTarget>> target : sftpTargets.entrySet()) {
+                    multiTarget.addTarget(target.getKey(), target.getValue().get());
+                }
+                return multiTarget;
+            };
+        } else if (config.getBoolean("/local/@use", false)) {
+            String exportFolder = config.getString("/local/exportFolder");
+            String stagingFolder = config.getString("/local/stagingFolder");
+            exportTargetFactory = () -> {
+                LocalExportTarget localTarget = new LocalExportTarget();
+                localTarget.setExportFolder(exportFolder);
+                localTarget.setStagingFolder(stagingFolder);
+                return localTarget;
+            };
+        }
+
+        // temporary storage of the exported files
+        boolean stagingInMemory = "memory".equalsIgnoreCase(config.getString("/staging/@type", "disk"));
+        long maxStagingMemory = config.getLong("/staging/@maxMemory", 268435456L);
+        String stagingFolder = config.getString("/staging/@folder");
+
+        // the streaming reader does not validate the metadata against the ruleset
+        boolean fastMetadataReader = "streaming".equalsIgnoreCase(config.getString("/metadata/@reader", "ugh"))
+                && !config.getBoolean("/metadata/@validate", false);
+
+        // timeline of each export in the chrome trace format
+        boolean traceEnabled = config.getBoolean("/trace/@enabled", false);
+        String traceFolder = config.getString("/trace/@folder");
+
+        // engine to create the derivatives
+        String scalingEngine;
+        ImageScaler imageScaler;
+        if ("java".equalsIgnoreCase(config.getString("/scaling/@engine", "contentlib"))) {
+            scalingEngine = "java";
+            imageScaler = new AreaAveragingImageScaler();
+        } else {
+            scalingEngine = "contentlib";
+            imageScaler = new ContentLibImageScaler();
+        }
 
-        String pubkeyAcceptedAlgorithms = config.getString("/sftp/pubkeyAcceptedAlgorithms");
-        if (pubkeyAcceptedAlgorithms != null) {
-            sftpConfig.put("PubkeyAcceptedAlgorithms", pubkeyAcceptedAlgorithms);
+        // time limits in seconds, exports exceeding them are aborted by the watchdog
+        Map<String, Long> stageTimeouts = new HashMap<>();
+        for (HierarchicalConfiguration stage : config.configurationsAt("/deadlines/stage")) {
+            stageTimeouts.put(stage.getString("/@name"), stage.getLong("/@timeout", 0));
         }
+        ExportDeadlines deadlines = new ExportDeadlines(config.getLong("/deadlines/@export", 0), stageTimeouts,
+                config.getLong("/deadlines/@minThroughput", 0), config.getLong("/deadlines/@stallTime", 60));
+
+        // derivatives rendered in advance, e.g. while the export waits for another export of the record
+        boolean preRenderEnabled = config.getBoolean("/prerender/@enabled", false);
+        String derivativeFolder = config.getString("/prerender/@folder");
+
+        return HerisExportConfiguration.builder()
+                .propertyName(propertyName)
+                .jsonRootElementName(jsonRootElementName)
+                .jsonFields(jsonFields)
+                .exportTargetFactory(exportTargetFactory)
+                .stagingInMemory(stagingInMemory)
+                .maxStagingMemory(maxStagingMemory)
+                .stagingFolder(stagingFolder)
+                .fastMetadataReader(fastMetadataReader)
+                .traceEnabled(traceEnabled)
+                .traceFolder(traceFolder)
+                .scalingEngine(scalingEngine)
+                .imageScaler(imageScaler)
+                .deadlines(deadlines)
+                .preRenderEnabled(preRenderEnabled)
+                .derivativeFolder(derivativeFolder)
+                .build();
+    }
 
+    /**
+     * @param sftp configuration of a single sftp block
+     * @return factory for new targets of the sftp server
+     */
+    private static Supplier<ExportTarget> createSftpTargetFactory(HierarchicalConfiguration sftp) {
+        String username = sftp.getString("/username");
+        String password = sftp.getString("/password");
+        String hostname = sftp.getString("/hostname");
+        int port = sftp.getInt("/port", 22);
+        String keyfile = sftp.getString("/keyfile");
+        String knownHosts = sftp.getString("/knownHosts", System.getProperty("user.home").concat("/.ssh/known_hosts"));
+        String ftpFolder = sftp.getString("/sftpFolder");
+        boolean packageAsArchive = "zip".equalsIgnoreCase(sftp.getString("/packaging", "files"));
+        String pubkeyAcceptedAlgorithms = sftp.getString("/pubkeyAcceptedAlgorithms");
+        int parallelRequests = sftp.getInt("/parallelRequests", 4);
+        // seconds, 0 waits forever
+        int connectTimeout = sftp.getInt("/connectTimeout", 0) * 1000;
+        int readTimeout = sftp.getInt("/readTimeout", 0) * 1000;
+
+        return () -> {
+            SftpExportTarget sftpTarget = new SftpExportTarget();
+            sftpTarget.setUsername(username);
+            sftpTarget.setPassword(password);
+            sftpTarget.setHostname(hostname);
+            sftpTarget.setPort(port);
+            sftpTarget.setKeyfile(keyfile);
+            sftpTarget.setKnownHosts(knownHosts);
+            sftpTarget.setFtpFolder(ftpFolder);
+            sftpTarget.setPackageAsArchive(packageAsArchive);
+            sftpTarget.setParallelRequests(parallelRequests);
+            sftpTarget.setConnectTimeout(connectTimeout);
+            sftpTarget.setReadTimeout(readTimeout);
+            if (pubkeyAcceptedAlgorithms != null) {
+                Properties sftpConfig = new Properties();
+                sftpConfig.put("PubkeyAcceptedAlgorithms", pubkeyAcceptedAlgorithms);
+                sftpTarget.setSftpConfig(sftpConfig);
+            }
+            return sftpTarget;
+        };
+    }
+
+    /**
+     * Configure the resources shared by all exports in this JVM. They are read once from the elements outside of the config blocks, so that
+     * the projects cannot overwrite each other's settings. Changes require a restart of Goobi.
+     * 
+     * @param xmlConfig configuration of this plugin
+     */
+    private static synchronized void configureSharedResources(XMLConfiguration xmlConfig) {
+        if (sharedResourcesConfigured) {
+            return;
+        }
+        // upload bandwidth
+        List<TransferWindow> transferWindows = new ArrayList<>();
+        for (HierarchicalConfiguration window : xmlConfig.configurationsAt("/bandwidth/window")) {
+            transferWindows.add(new TransferWindow(LocalTime.parse(window.getString("/@from")), LocalTime.parse(window.getString("/@to")),
+                    window.getLong("/@limit", 0)));
+        }
+        TransferRateLimiter.getInstance().configure(xmlConfig.getLong("/bandwidth/@limit", 0), transferWindows);
+        // threads for blocking I/O and for the cpu bound image stages, without the element the defaults of ExportExecutors are kept
+        if (!xmlConfig.configurationsAt("/executors").isEmpty()) {
+            boolean virtualThreads = "virtual".equalsIgnoreCase(xmlConfig.getString("/executors/@io", "platform"));
+            ExportExecutors.getInstance().configure(virtualThreads, xmlConfig.getInt("/executors/@cpuThreads", 0));
+        }
+        sharedResourcesConfigured = true;
     }
 
     /**
      * get the SubnodeConfiguration of the current process
      * 
+     * @param xmlConfig configuration of this plugin
      * @param process Goobi process
      * @return SubnodeConfiguration object according to the project's name
      */
-    private SubnodeConfiguration getConfig(Process process) {
+    private static SubnodeConfiguration getConfig(XMLConfiguration xmlConfig, Process process) {
         String projectName = process.getProjekt().getTitel();
         log.debug("projectName = " + projectName);
-        XMLConfiguration xmlConfig = getXMLConfig();
         SubnodeConfiguration conf = null;
 
         // order of configuration is:
@@ -456,53 +738,30 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
      * 
      * @return the XMLConfiguration of this plugin
      */
-    private XMLConfiguration getXMLConfig() {
-        XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(title);
+    private static XMLConfiguration getXMLConfig() {
+        XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(PLUGIN_TITLE);
         xmlConfig.setExpressionEngine(new XPathExpressionEngine());
         xmlConfig.setReloadingStrategy(new FileChangedReloadingStrategy());
 
         return xmlConfig;
     }
 
-    private void connect() {
-        if (useSftp) {
-            try {
-                // first option, use passphrase protected keyfile
-                if (StringUtils.isNotBlank(keyfile) && StringUtils.isNotBlank(password)) {
-                    utils = new SftpClient(username, keyfile, password, hostname, port, knownHosts, sftpConfig);
-                }
-                // second option: use keyfile without passphrase
-                else if (StringUtils.isNotBlank(keyfile)) {
-                    utils = new SftpClient(username, keyfile, null, hostname, port, knownHosts, sftpConfig);
-                }
-                // third option, username + password
-                else {
-                    utils = new SftpClient(username, password, hostname, port, knownHosts, sftpConfig);
-                }
+    private void connect(ExportContext context) {
+        if (context.getExportTarget() != null) {
+            try (ExportWatchdog.Registration stage = context.getWatch().stage("connect")) {
+                context.getExportTarget().connect();
             } catch (IOException e) {
                 log.error(e);
             }
         }
     }
 
-    private Path getExistingJsonFile(String herisId) {
-        Path jsonFile = null;
-        if (useSftp) {
-            try {
-                // open configured folder
-                utils.changeRemoteFolder(ftpFolder);
-
-                // check for existing data in previous exports
-                utils.changeRemoteFolder(herisId);
-                List<String> dataInFolder = utils.listContent();
-
-                // download existing data
-                if (!dataInFolder.isEmpty()) {
-                    for (String filename : dataInFolder) {
-                        if ((herisId + ".json").equals(filename)) {
-                            jsonFile = utils.downloadFile(filename, tempDir);
-                        }
-                    }
+    private String getExistingJsonFile(ExportContext context) {
+        String jsonFile = null;
+        if (context.getExportTarget() != null) {
+            try (ExportWatchdog.Registration stage = context.getWatch().stage("download")) {
+                if (context.getExportTarget().downloadExistingJsonFile(context.getHerisId(), context.getStaging())) {
+                    jsonFile = context.getHerisId() + ".json";
                 }
             } catch (IOException e) {
                 // exception is thrown if the given file does not exist
@@ -511,52 +770,58 @@ public class HerisExportPlugin implements IExportPlugin, IPlugin {
         return jsonFile;
     }
 
-    private void uploadData(String herisId) {
-        if (useSftp) {
+    /**
+     * Publish the staging area to the export target. With several targets, the result of each one is written to the journal.
+     * 
+     * @return false if the data could not be published to all targets
+     * @throws InterruptedIOException if the export was aborted
+     */
+    private boolean uploadData(ExportContext context) throws InterruptedIOException {
+        ExportTarget exportTarget = context.getExportTarget();
+        if (exportTarget == null) {
+            return true;
+        }
+        Integer processId = context.getProcess().getId();
+        // the targets measure the throughput of their uploads, several targets upload on threads of their own
+        try (ExportWatchdog.Registration stage = context.getWatch().stage("publish");
+                ExportTrace.Span span = context.getTrace().start("publish", "target")) {
             try {
-                // open remote folder
-                utils.changeRemoteFolder(ftpFolder);
-                // list content, check if sub folder for heris id exists
-                List<String> content = utils.listContent();
-                if (!content.contains(herisId)) {
-                    // create new remote folder, if missing
-                    utils.createSubFolder(herisId);
-                }
-                // switch to heris folder
-                utils.changeRemoteFolder(herisId);
+                exportTarget.publish(context.getHerisId(), context.getStaging());
             } catch (IOException e) {
+                span.fail(e);
+                // an aborted export is reported by the caller
+                context.getWatch().checkCancelled();
+                // with several targets, the message names the failed ones
+                context.getProblems().add(e.getMessage());
                 log.error(e);
-            }
-
-            // list all files in remote folder
-            List<String> localData = StorageProvider.getInstance().list(tempDir.toString());
-            try {
-                List<String> remoteData = utils.listContent();
-
-                // compare filenames with new files
-                for (String remoteFile : remoteData) {
-                    if (remoteFile.toLowerCase().endsWith("tif") || remoteFile.toLowerCase().endsWith("jpg")) {
-
-                        if (!localData.contains(remoteFile)) {
-                            // if remote file is not present in local folder, delete it
-                            utils.deleteFile(remoteFile);
-                        }
-                    }
-                }
-                // upload new images + json + backup file
-                for (String localFile : localData) {
-                    utils.uploadFile(Paths.get(tempDir.toString(), localFile));
+                if (exportTarget instanceof MultiExportTarget) {
+                    Helper.addMessageToProcessJournal(processId, LogType.ERROR,
+                            "Heris export failed, " + getTargetResults((MultiExportTarget) exportTarget));
+                } else {
+                    Helper.addMessageToProcessJournal(processId, LogType.ERROR, "Heris export failed, " + e.getMessage());
                 }
-            } catch (IOException e) {
-                log.error(e);
+                return false;
             }
         }
+        if (exportTarget instanceof MultiExportTarget) {
+            Helper.addMessageToProcessJournal(processId, LogType.INFO,
+                    "Heris export published, " + getTargetResults((MultiExportTarget) exportTarget));
+        }
+        return true;
+    }
+
+    private static String getTargetResults(MultiExportTarget exportTarget) {
+        List<String> results = new ArrayList<>();
+        for (Entry<String, String> result : exportTarget.getResults().entrySet()) {
+            results.add(result.getKey() + ": " + result.getValue());
+        }
+        return String.join(", ", results);
     }
 
-    private void disconnect() {
-        if (utils != null) {
-            utils.close();
+    private void disconnect(ExportContext context) {
+        if (context.getExportTarget() != null) {
+            context.getExportTarget().close();
         }
     }
 
-}
\ No newline at end of file
+}
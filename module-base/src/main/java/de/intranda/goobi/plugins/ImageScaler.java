@@ -0,0 +1,43 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+
+/**
+ * Creates the JPEG derivatives of the exported images. Implementations must be thread safe, one instance is used by all exports of a
+ * configuration.
+ */
+public interface ImageScaler {
+
+    /**
+     * Create a JPEG derivative of an image that fits into the given box, the aspect ratio is kept
+     *
+     * @param source master image
+     * @param box maximum width and height of the derivative
+     * @param out destination of the JPEG data, is not closed
+     * @param trace trace of the export, for the decode, scale and encode spans
+     * @throws IOException if the image cannot be read or written
+     * @throws java.io.InterruptedIOException if the export was aborted, see {@link ExportWatchdog#current()}
+     */
+    void createDerivative(Path source, Dimension box, OutputStream out, ExportTrace trace) throws IOException;
+}
@@ -0,0 +1,97 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Writes the JPEG derivatives. Each thread keeps its ImageIO writer and reuses it for all images it encodes, instead of looking up and
+ * initializing a new writer with its native codec for every image. A writer that failed or was aborted is disposed and replaced. Threads
+ * that end call {@link #release()}, e.g. the threads of the CPU pool in {@link ExportExecutors}.
+ */
+public final class JpegEncoder {
+
+    private static final float QUALITY = 0.8f;
+
+    private static final ThreadLocal<JpegEncoder> ENCODERS = new ThreadLocal<>();
+
+    private final ImageWriter writer;
+
+    private final ImageWriteParam param;
+
+    private JpegEncoder() {
+        writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(QUALITY);
+    }
+
+    /**
+     * Encode an image with the writer of the current thread
+     *
+     * @param image 8 bit gray or RGB image without alpha channel
+     * @param out destination of the JPEG data, is not closed
+     * @throws IOException if the image cannot be written
+     */
+    public static void write(RenderedImage image, OutputStream out) throws IOException {
+        JpegEncoder encoder = ENCODERS.get();
+        if (encoder == null) {
+            encoder = new JpegEncoder();
+            ENCODERS.set(encoder);
+        }
+        encoder.encode(image, out);
+    }
+
+    /**
+     * Dispose the writer of the current thread. The writer holds native resources that are otherwise only freed by the garbage collector.
+     */
+    public static void release() {
+        JpegEncoder encoder = ENCODERS.get();
+        if (encoder != null) {
+            ENCODERS.remove();
+            encoder.writer.dispose();
+        }
+    }
+
+    private void encode(RenderedImage image, OutputStream out) throws IOException {
+        ExportWatchdog.Watch watch = ExportWatchdog.current();
+        boolean reusable = false;
+        try (ExportWatchdog.Registration registration = watch.onAbort(writer::abort);
+                ImageOutputStream ios = new MemoryCacheImageOutputStream(out)) {
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(image, null, null), param);
+            reusable = !watch.isAborted();
+        } finally {
+            writer.setOutput(null);
+            if (!reusable) {
+                ENCODERS.remove();
+                writer.dispose();
+            }
+        }
+    }
+}
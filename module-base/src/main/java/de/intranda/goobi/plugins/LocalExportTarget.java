@@ -0,0 +1,173 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Export target in a local or mounted (e.g. NFS) folder. The files are first transferred into a staging folder and then renamed into the folder
+ * of the record, so that the HERIS side never sees partially written files. The JSON file is published last.
+ */
+@Log4j2
+@Getter
+@Setter
+public class LocalExportTarget implements ExportTarget {
+
+    // folder containing the sub folders of all records
+    private String exportFolder;
+
+    // staging folder, must be on the same file system as the export folder. Default is a hidden folder inside of the export folder
+    private String stagingFolder;
+
+    private ExportTrace trace = ExportTrace.DISABLED;
+
+    @Override
+    public void connect() throws IOException {
+        Path folder = Paths.get(exportFolder);
+        if (!Files.isDirectory(folder) || !Files.isWritable(folder)) {
+            throw new IOException("Export folder " + exportFolder + " does not exist or is not writable");
+        }
+        Files.createDirectories(getStagingPath());
+    }
+
+    @Override
+    public boolean downloadExistingJsonFile(String herisId, StagingArea staging) throws IOException {
+        Path jsonFile = Paths.get(exportFolder, herisId, herisId + ".json");
+        if (!Files.exists(jsonFile)) {
+            return false;
+        }
+        try (OutputStream out = staging.newOutputStream(jsonFile.getFileName().toString())) {
+            Files.copy(jsonFile, out);
+        }
+        return true;
+    }
+
+    @Override
+    public void publish(String herisId, StagingArea localStaging) throws IOException {
+        Path destination = Paths.get(exportFolder, herisId);
+        Files.createDirectories(destination);
+        Path staging = Files.createTempDirectory(getStagingPath(), herisId + "-");
+        try {
+            List<String> localData = localStaging.list();
+            // images first, the JSON file is the last file to become visible
+            List<String> publishOrder = new ArrayList<>();
+            for (String localFile : localData) {
+                if (localFile.endsWith(".json")) {
+                    publishOrder.add(localFile);
+                } else {
+                    publishOrder.add(0, localFile);
+                }
+            }
+
+            for (String localFile : publishOrder) {
+                try (ExportTrace.Span span = trace.start("transfer", "local").arg("file", localFile)) {
+                    transfer(localStaging, localFile, staging.resolve(localFile));
+                }
+            }
+            try (ExportTrace.Span span = trace.start("move", "local").arg("files", publishOrder.size())) {
+                for (String localFile : publishOrder) {
+                    move(staging.resolve(localFile), destination.resolve(localFile));
+                }
+            }
+
+            // delete images of previous exports
+            try (ExportTrace.Span span = trace.start("prune", "local");
+                    DirectoryStream<Path> stream = Files.newDirectoryStream(destination)) {
+                for (Path existingFile : stream) {
+                    if (ExportTarget.isStaleImage(existingFile.getFileName().toString(), localData)) {
+                        Files.deleteIfExists(existingFile);
+                    }
+                }
+            }
+        } finally {
+            FileUtils.deleteQuietly(staging.toFile());
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+
+    private Path getStagingPath() {
+        if (StringUtils.isNotBlank(stagingFolder)) {
+            return Paths.get(stagingFolder);
+        }
+        return Paths.get(exportFolder, ".staging");
+    }
+
+    /**
+     * Create a hard link if the staged file is on disk and on the same file system, otherwise copy the file with transferTo, which lets the kernel
+     * copy the data without passing it through the java heap. Files kept in memory are written directly.
+     */
+    private static void transfer(StagingArea localStaging, String filename, Path destination) throws IOException {
+        Files.deleteIfExists(destination);
+        Path source = localStaging.getPath(filename);
+        if (source == null) {
+            try (InputStream in = localStaging.newInputStream(filename)) {
+                Files.copy(in, destination);
+            }
+            return;
+        }
+        try {
+            Files.createLink(destination, source);
+            return;
+        } catch (IOException | UnsupportedOperationException e) {
+            log.trace("Cannot link {}, copy file instead", source);
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(true);
+        }
+    }
+
+    private static void move(Path source, Path destination) throws IOException {
+        try {
+            Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            log.warn("Staging folder and export folder are on different file systems, {} is not published atomically", destination);
+            Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.FileUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Staging area that keeps the files in memory. The memory of all staging areas in the JVM is limited, files that do not fit anymore are
+ * written into a spill folder, e.g. on a tmpfs or a local SSD. The files are stored in chunks of a fixed size, so the memory that is charged
+ * against the limit is the memory that is actually allocated, and reading a file does not copy it.
+ */
+@Log4j2
+public class MemoryStagingArea implements StagingArea {
+
+    // size of the memory blocks of the staged files
+    static final int CHUNK_SIZE = 16384;
+
+    // bytes held by all memory staging areas
+    private static final AtomicLong USED_MEMORY = new AtomicLong();
+
+    private final long maxMemory;
+
+    private final Path spillParentFolder;
+
+    private final String prefix;
+
+    private final Map<String, StagedFile> files = new ConcurrentHashMap<>();
+
+    // streams that are not closed yet, their memory is released with the staging area
+    private final Set<StagingOutputStream> openStreams = ConcurrentHashMap.newKeySet();
+
+    // created when the first file is spilled to disk
+    private Path spillFolder;
+
+    /**
+     * @param maxMemory maximum number of bytes kept in memory by all staging areas together
+     * @param spillParentFolder folder to create the spill folder in, null to use the default temp folder
+     * @param prefix prefix of the spill folder name
+     */
+    public MemoryStagingArea(long maxMemory, Path spillParentFolder, String prefix) {
+        this.maxMemory = maxMemory;
+        this.spillParentFolder = spillParentFolder;
+        this.prefix = prefix;
+    }
+
+    /**
+     * file content, either in memory or on disk
+     */
+    private static class StagedFile {
+        private final List<byte[]> chunks;
+        private final long length;
+        private final Path path;
+
+        private StagedFile(List<byte[]> chunks, long length, Path path) {
+            this.chunks = chunks;
+            this.length = length;
+            this.path = path;
+        }
+
+        private long getMemory() {
+            return path == null ? (long) chunks.size() * CHUNK_SIZE : 0;
+        }
+    }
+
+    /**
+     * Writes into memory as long as the memory limit allows it, then switches to a file in the spill folder
+     */
+    private class StagingOutputStream extends OutputStream {
+
+        private final String filename;
+        private List<byte[]> chunks = new ArrayList<>();
+        private long length = 0;
+        private Path spillFile;
+        private OutputStream disk;
+        private boolean closed = false;
+
+        private StagingOutputStream(String filename) {
+            this.filename = filename;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream of " + filename + " is closed");
+            }
+            while (len > 0 && disk == null) {
+                int position = (int) (length % CHUNK_SIZE);
+                if (position == 0 && !addChunk()) {
+                    spill();
+                    break;
+                }
+                int count = Math.min(len, CHUNK_SIZE - position);
+                System.arraycopy(b, off, chunks.get(chunks.size() - 1), position, count);
+                off += count;
+                len -= count;
+                length += count;
+            }
+            if (len > 0) {
+                disk.write(b, off, len);
+                length += len;
+            }
+        }
+
+        private boolean addChunk() {
+            long used;
+            do {
+                used = USED_MEMORY.get();
+                if (used + CHUNK_SIZE > maxMemory) {
+                    return false;
+                }
+            } while (!USED_MEMORY.compareAndSet(used, used + CHUNK_SIZE));
+            chunks.add(new byte[CHUNK_SIZE]);
+            return true;
+        }
+
+        private void spill() throws IOException {
+            log.debug("Memory limit for staged files reached, write {} to disk", filename);
+            spillFile = Files.createTempFile(getSpillFolder(), "staged-", ".tmp");
+            disk = new BufferedOutputStream(Files.newOutputStream(spillFile), 65536);
+            long remaining = length;
+            for (byte[] chunk : chunks) {
+                disk.write(chunk, 0, (int) Math.min(CHUNK_SIZE, remaining));
+                remaining -= CHUNK_SIZE;
+            }
+            releaseChunks();
+        }
+
+        private void releaseChunks() {
+            USED_MEMORY.addAndGet(-(long) chunks.size() * CHUNK_SIZE);
+            chunks = Collections.emptyList();
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (disk != null) {
+                disk.flush();
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            openStreams.remove(this);
+            StagedFile stagedFile;
+            if (disk != null) {
+                disk.close();
+                stagedFile = new StagedFile(null, length, spillFile);
+            } else {
+                // the chunks are handed over to the staged file, no copy is made
+                stagedFile = new StagedFile(chunks, length, null);
+            }
+            release(files.put(filename, stagedFile));
+        }
+
+        /**
+         * Release the memory of a stream that was never closed, e.g. after an error. The file is not created.
+         */
+        private synchronized void discard() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            releaseChunks();
+            if (disk != null) {
+                try {
+                    disk.close();
+                    Files.deleteIfExists(spillFile);
+                } catch (IOException e) {
+                    log.warn("Cannot delete incomplete staged file {}", spillFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads a staged file directly from its chunks
+     */
+    private static class ChunkInputStream extends InputStream {
+
+        private final List<byte[]> chunks;
+        private final long length;
+        private long position = 0;
+
+        private ChunkInputStream(StagedFile stagedFile) {
+            this.chunks = stagedFile.chunks;
+            this.length = stagedFile.length;
+        }
+
+        @Override
+        public int read() {
+            if (position >= length) {
+                return -1;
+            }
+            byte b = chunks.get((int) (position / CHUNK_SIZE))[(int) (position % CHUNK_SIZE)];
+            position++;
+            return b & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= length) {
+                return -1;
+            }
+            int offset = (int) (position % CHUNK_SIZE);
+            int count = (int) Math.min(Math.min(len, CHUNK_SIZE - offset), length - position);
+            System.arraycopy(chunks.get((int) (position / CHUNK_SIZE)), offset, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, length - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, length - position);
+        }
+    }
+
+    /**
+     * @return number of bytes held in memory by all staging areas
+     */
+    static long getUsedMemory() {
+        return USED_MEMORY.get();
+    }
+
+    private synchronized Path getSpillFolder() throws IOException {
+        if (spillFolder == null) {
+            if (spillParentFolder == null) {
+                spillFolder = Files.createTempDirectory(prefix); // NOSONAR temp dir is safe here, it gets deleted at the end
+            } else {
+                Files.createDirectories(spillParentFolder);
+                spillFolder = Files.createTempDirectory(spillParentFolder, prefix);
+            }
+        }
+        return spillFolder;
+    }
+
+    private static void release(StagedFile stagedFile) throws IOException {
+        if (stagedFile == null) {
+            return;
+        }
+        if (stagedFile.path != null) {
+            Files.deleteIfExists(stagedFile.path);
+        } else {
+            USED_MEMORY.addAndGet(-stagedFile.getMemory());
+        }
+    }
+
+    private StagedFile get(String filename) throws FileNotFoundException {
+        StagedFile stagedFile = files.get(filename);
+        if (stagedFile == null) {
+            throw new FileNotFoundException(filename);
+        }
+        return stagedFile;
+    }
+
+    @Override
+    public OutputStream newOutputStream(String filename) throws IOException {
+        StagingOutputStream out = new StagingOutputStream(filename);
+        openStreams.add(out);
+        return out;
+    }
+
+    @Override
+    public InputStream newInputStream(String filename) throws IOException {
+        StagedFile stagedFile = get(filename);
+        if (stagedFile.path != null) {
+            return Files.newInputStream(stagedFile.path);
+        }
+        return new ChunkInputStream(stagedFile);
+    }
+
+    @Override
+    public List<String> list() {
+        List<String> content = new ArrayList<>(files.keySet());
+        Collections.sort(content);
+        return content;
+    }
+
+    @Override
+    public long size(String filename) throws IOException {
+        return get(filename).length;
+    }
+
+    @Override
+    public void rename(String filename, String newFilename) throws IOException {
+        StagedFile stagedFile = files.remove(filename);
+        if (stagedFile == null) {
+            throw new FileNotFoundException(filename);
+        }
+        release(files.put(newFilename, stagedFile));
+    }
+
+    @Override
+    public void delete(String filename) throws IOException {
+        release(files.remove(filename));
+    }
+
+    @Override
+    public Path getPath(String filename) {
+        StagedFile stagedFile = files.get(filename);
+        return stagedFile == null ? null : stagedFile.path;
+    }
+
+    @Override
+    public synchronized Path getFolder() {
+        return spillFolder;
+    }
+
+    /**
+     * Drop the files that are kept in memory and release their memory, files that were spilled to disk are kept
+     */
+    @Override
+    public void releaseMemory() {
+        for (StagingOutputStream out : openStreams) {
+            out.discard();
+        }
+        openStreams.clear();
+        for (Map.Entry<String, StagedFile> file : files.entrySet()) {
+            if (file.getValue().path == null && files.remove(file.getKey(), file.getValue())) {
+                USED_MEMORY.addAndGet(-file.getValue().getMemory());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        releaseMemory();
+        files.clear();
+        synchronized (this) {
+            if (spillFolder != null && !FileUtils.deleteQuietly(spillFolder.toFile())) {
+                log.error("Cannot delete spill folder {}", spillFolder);
+            }
+            spillFolder = null;
+        }
+    }
+}
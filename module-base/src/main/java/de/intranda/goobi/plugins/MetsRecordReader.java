@@ -0,0 +1,260 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.lang.StringUtils;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Reads the data needed for the export directly from a Goobi METS file, without building the UGH object model. Only the metadata of the
+ * main element, the image names of the pages and the metadata of the linked photographs are extracted. The metadata is not validated against
+ * the ruleset.
+ */
+@Log4j2
+public class MetsRecordReader {
+
+    private static final String METS_NS = "http://www.loc.gov/METS/";
+    private static final String XLINK_NS = "http://www.w3.org/1999/xlink";
+    private static final String GOOBI_NS_PREFIX = "http://meta.goobi.org/";
+
+    private static final String LOCAL_FILE_GROUP = "LOCAL";
+
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    // metadata types to extract, null to extract all
+    private final Set<String> metadataNames;
+
+    // metadata by dmdSec ID
+    private final Map<String, ExportElement> dmdSections = new HashMap<>();
+    // image urls of the local file group by file ID
+    private final Map<String, String> localFiles = new HashMap<>();
+    // logical elements
+    private final Map<String, String> logicalTypes = new HashMap<>();
+    private final Map<String, String> logicalDmdIds = new HashMap<>();
+    private String topLogicalId;
+    // pages in the order of the physical structure map
+    private final List<String> pageIds = new ArrayList<>();
+    private final Map<String, String> pageFiles = new HashMap<>();
+    // logical IDs linked to a page, in the order of the structLink section
+    private final Map<String, List<String>> pageLinks = new HashMap<>();
+
+    private boolean unsupported = false;
+
+    /**
+     * @param metadataNames metadata types to extract, null to extract all
+     */
+    public MetsRecordReader(Set<String> metadataNames) {
+        this.metadataNames = metadataNames;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Read a metadata file. A reader instance can only be used once.
+     *
+     * @param in content of the meta.xml file
+     * @return the record, or null if the file uses features that are not supported by this reader, e.g. anchor records
+     * @throws XMLStreamException if the file cannot be parsed
+     */
+    public ExportRecord read(InputStream in) throws XMLStreamException {
+        XMLStreamReader reader = INPUT_FACTORY.createXMLStreamReader(in);
+        try {
+            parse(reader);
+        } finally {
+            reader.close();
+        }
+        if (unsupported || topLogicalId == null || localFiles.isEmpty()) {
+            return null;
+        }
+        return createRecord();
+    }
+
+    private void parse(XMLStreamReader reader) throws XMLStreamException {
+        String dmdId = null;
+        int metadataDepth = 0;
+        String fileGroup = null;
+        String fileId = null;
+        String structMapType = null;
+        int divDepth = 0;
+        String pageId = null;
+
+        while (reader.hasNext() && !unsupported) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String namespace = reader.getNamespaceURI();
+                String name = reader.getLocalName();
+                if (namespace != null && namespace.startsWith(GOOBI_NS_PREFIX)) {
+                    if ("metadata".equals(name) && dmdId != null) {
+                        metadataDepth++;
+                        // persons, corporates and groups are not used by the export
+                        String metadataName = reader.getAttributeValue(null, "name");
+                        if (metadataDepth == 1 && reader.getAttributeValue(null, "type") == null && isRequired(metadataName)) {
+                            dmdSections.get(dmdId).addMetadata(metadataName, reader.getElementText());
+                            metadataDepth--;
+                        }
+                    }
+                    continue;
+                }
+                if (!METS_NS.equals(namespace)) {
+                    continue;
+                }
+                switch (name) {
+                    case "dmdSec":
+                        dmdId = reader.getAttributeValue(null, "ID");
+                        dmdSections.put(dmdId, new ExportElement(null));
+                        break;
+                    case "fileGrp":
+                        fileGroup = reader.getAttributeValue(null, "USE");
+                        break;
+                    case "file":
+                        fileId = reader.getAttributeValue(null, "ID");
+                        break;
+                    case "FLocat":
+                        if (LOCAL_FILE_GROUP.equals(fileGroup) && fileId != null) {
+                            localFiles.put(fileId, reader.getAttributeValue(XLINK_NS, "href"));
+                        }
+                        break;
+                    case "structMap":
+                        structMapType = reader.getAttributeValue(null, "TYPE");
+                        divDepth = 0;
+                        break;
+                    case "div":
+                        divDepth++;
+                        String divId = reader.getAttributeValue(null, "ID");
+                        if ("LOGICAL".equals(structMapType)) {
+                            logicalTypes.put(divId, reader.getAttributeValue(null, "TYPE"));
+                            logicalDmdIds.put(divId, reader.getAttributeValue(null, "DMDID"));
+                            if (divDepth == 1) {
+                                topLogicalId = divId;
+                            }
+                        } else if ("PHYSICAL".equals(structMapType) && divDepth == 2) {
+                            pageId = divId;
+                            pageIds.add(divId);
+                        }
+                        break;
+                    case "mptr":
+                        // anchor records are read by UGH
+                        unsupported = true;
+                        break;
+                    case "fptr":
+                        String fptrFile = reader.getAttributeValue(null, "FILEID");
+                        if (pageId != null && divDepth == 2 && !pageFiles.containsKey(pageId) && localFiles.containsKey(fptrFile)) {
+                            pageFiles.put(pageId, fptrFile);
+                        }
+                        break;
+                    case "smLink":
+                        pageLinks.computeIfAbsent(reader.getAttributeValue(XLINK_NS, "to"), k -> new ArrayList<>())
+                                .add(reader.getAttributeValue(XLINK_NS, "from"));
+                        break;
+                    default:
+                        break;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                String namespace = reader.getNamespaceURI();
+                String name = reader.getLocalName();
+                if (namespace != null && namespace.startsWith(GOOBI_NS_PREFIX)) {
+                    if ("metadata".equals(name) && dmdId != null) {
+                        metadataDepth--;
+                    }
+                } else if (METS_NS.equals(namespace)) {
+                    switch (name) {
+                        case "dmdSec":
+                            dmdId = null;
+                            metadataDepth = 0;
+                            break;
+                        case "fileGrp":
+                            fileGroup = null;
+                            break;
+                        case "file":
+                            fileId = null;
+                            break;
+                        case "structMap":
+                            structMapType = null;
+                            break;
+                        case "div":
+                            if (divDepth == 2) {
+                                pageId = null;
+                            }
+                            divDepth--;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isRequired(String metadataName) {
+        return metadataName != null && (metadataNames == null || metadataNames.contains(metadataName));
+    }
+
+    private ExportRecord createRecord() {
+        ExportElement logical = createElement(topLogicalId);
+        List<ExportPage> pages = new ArrayList<>(pageIds.size());
+        for (String pageId : pageIds) {
+            String photographId = null;
+            for (String logicalId : pageLinks.getOrDefault(pageId, Collections.emptyList())) {
+                if (ExportRecord.PHOTOGRAPH.equals(logicalTypes.get(logicalId))) {
+                    photographId = logicalId;
+                }
+            }
+            String url = localFiles.get(pageFiles.get(pageId));
+            String imageName = url == null ? null : Paths.get(url).getFileName().toString();
+            pages.add(new ExportPage(imageName, photographId == null ? null : createElement(photographId)));
+        }
+        log.trace("Read {} pages from metadata file", pages.size());
+        return new ExportRecord(logical, pages);
+    }
+
+    private ExportElement createElement(String logicalId) {
+        ExportElement element = new ExportElement(logicalTypes.get(logicalId));
+        String dmdIds = logicalDmdIds.get(logicalId);
+        if (StringUtils.isNotBlank(dmdIds)) {
+            for (String id : dmdIds.trim().split("\\s+")) {
+                ExportElement dmdSection = dmdSections.get(id);
+                if (dmdSection != null) {
+                    dmdSection.getMetadata().forEach((name, values) -> values.forEach(value -> element.addMetadata(name, value)));
+                }
+            }
+        }
+        return element;
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Publishes the same staging area to several targets at the same time. Each target is connected and published on its own thread, a failed
+ * target is reconnected and published again until its retries are used up, without repeating the other targets. The export fails if any target
+ * failed, the result of each target is available with {@link #getResults()} and is written to the journal of the process.
+ */
+@Log4j2
+public class MultiExportTarget implements ExportTarget {
+
+    private final List<Destination> destinations = new ArrayList<>();
+
+    // number of additional attempts of a failed target
+    private final int retries;
+
+    // pause before the next attempt in milliseconds
+    private final long retryDelay;
+
+    /**
+     * Target and state of a single destination
+     */
+    private static class Destination {
+        private final String name;
+        private final ExportTarget target;
+        private boolean connected;
+        private String result = "not published";
+
+        private Destination(String name, ExportTarget target) {
+            this.name = name;
+            this.target = target;
+        }
+    }
+
+    /**
+     * @param retries number of additional attempts of a failed target
+     * @param retryDelay pause before the next attempt in milliseconds
+     */
+    public MultiExportTarget(int retries, long retryDelay) {
+        this.retries = Math.max(0, retries);
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * @param name name of the target, used in the log and the results
+     * @param target a new, not yet connected target
+     */
+    public void addTarget(String name, ExportTarget target) {
+        destinations.add(new Destination(name, target));
+    }
+
+    /**
+     * Connect all targets. Targets that cannot be connected are tried again when the data is published.
+     * 
+     * @throws IOException if no target could be connected
+     */
+    @Override
+    public void connect() throws IOException {
+        IOException exception = null;
+        for (Future<IOException> result : runForAll(this::connect)) {
+            IOException e = await(result);
+            if (e != null && exception == null) {
+                exception = e;
+            }
+        }
+        for (Destination destination : destinations) {
+            if (destination.connected) {
+                return;
+            }
+        }
+        throw exception == null ? new IOException("No export target configured") : exception;
+    }
+
+    private IOException connect(Destination destination) {
+        try {
+            destination.target.connect();
+            destination.connected = true;
+            return null;
+        } catch (IOException e) {
+            log.warn("Cannot connect to export target {}", destination.name, e);
+            destination.result = "connection failed: " + e.getMessage();
+            return e;
+        }
+    }
+
+    /**
+     * Download the JSON file from the first connected target that has it
+     */
+    @Override
+    public boolean downloadExistingJsonFile(String herisId, StagingArea staging) throws IOException {
+        IOException exception = null;
+        for (Destination destination : destinations) {
+            if (!destination.connected) {
+                continue;
+            }
+            try {
+                if (destination.target.downloadExistingJsonFile(herisId, staging)) {
+                    return true;
+                }
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return false;
+    }
+
+    @Override
+    public void publish(String herisId, StagingArea staging) throws IOException {
+        List<Future<IOException>> results = runForAll(destination -> publish(destination, herisId, staging));
+        List<String> failures = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            if (await(results.get(i)) != null) {
+                Destination destination = destinations.get(i);
+                failures.add(destination.name + " (" + destination.result + ")");
+            }
+        }
+        if (!failures.isEmpty()) {
+            throw new IOException("Export of HERIS ID " + herisId + " failed for " + String.join(", ", failures));
+        }
+    }
+
+    private IOException publish(Destination destination, String herisId, StagingArea staging) {
+        IOException exception = null;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            try {
+                if (attempt > 0) {
+                    log.info("Retry export of HERIS ID {} to {}, attempt {} of {}", herisId, destination.name, attempt, retries);
+                    TimeUnit.MILLISECONDS.sleep(retryDelay);
+                    destination.target.close();
+                    destination.connected = false;
+                }
+                if (!destination.connected) {
+                    destination.target.connect();
+                    destination.connected = true;
+                }
+                destination.target.publish(herisId, staging);
+                destination.result = attempt == 0 ? "ok" : "ok after " + attempt + (attempt == 1 ? " retry" : " retries");
+                log.info("Published HERIS ID {} to {}", herisId, destination.name);
+                return null;
+            } catch (InterruptedIOException e) {
+                // aborted, do not try again
+                destination.result = "aborted: " + e.getMessage();
+                return e;
+            } catch (IOException e) {
+                ExportWatchdog.Watch watch = ExportWatchdog.current();
+                if (watch.isAborted()) {
+                    // the watchdog closed the connection
+                    destination.result = "aborted: " + watch.getAbortReason();
+                    return new InterruptedIOException(watch.getAbortReason());
+                }
+                log.warn("Cannot publish HERIS ID {} to {}", herisId, destination.name, e);
+                destination.result = "failed: " + e.getMessage();
+                exception = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                destination.result = "aborted";
+                return new InterruptedIOException(e.getMessage());
+            }
+        }
+        return exception;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        IOException run(Destination destination);
+    }
+
+    /**
+     * Run the operation for all targets, each one on its own thread. The threads use the watchdog of the export.
+     */
+    private List<Future<IOException>> runForAll(Operation operation) throws InterruptedIOException {
+        ExportWatchdog.Watch watch = ExportWatchdog.current();
+        ExecutorService executor = ExportExecutors.getInstance().newIoExecutor("heris-target", destinations.size());
+        try {
+            List<Future<IOException>> results = new ArrayList<>();
+            for (Destination destination : destinations) {
+                results.add(executor.submit(() -> {
+                    try (ExportWatchdog.Registration registration = watch.bind()) {
+                        return operation.run(destination);
+                    }
+                }));
+            }
+            for (Future<IOException> result : results) {
+                try {
+                    result.get();
+                } catch (ExecutionException e) {
+                    // returned as result
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(watch.isAborted() ? watch.getAbortReason() : "the export was interrupted");
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static IOException await(Future<IOException> result) {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            return new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            // all results are complete
+            Thread.currentThread().interrupt();
+            return new InterruptedIOException(e.getMessage());
+        }
+    }
+
+    /**
+     * @return result of each target, key is the name of the target
+     */
+    public Map<String, String> getResults() {
+        Map<String, String> results = new LinkedHashMap<>();
+        for (Destination destination : destinations) {
+            results.put(destination.name, destination.result);
+        }
+        return Collections.unmodifiableMap(results);
+    }
+
+    @Override
+    public void setTrace(ExportTrace trace) {
+        for (Destination destination : destinations) {
+            destination.target.setTrace(trace);
+        }
+    }
+
+    @Override
+    public void abort() {
+        for (Destination destination : destinations) {
+            destination.target.abort();
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Destination destination : destinations) {
+            destination.target.close();
+        }
+    }
+}
@@ -19,15 +19,25 @@
 package de.intranda.goobi.plugins;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Predicate;
 
 import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.ChannelSftp.LsEntry;
+import com.jcraft.jsch.ChannelSftp.LsEntrySelector;
 import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
@@ -39,12 +49,38 @@ public class SftpClient {
     private ChannelSftp sftpChannel;
     private Session jschSession;
 
+    // maximum number of remote operations in flight, each one uses its own channel of the session
+    private int parallelRequests = 4;
+    // additional channels for pipelined operations, opened on demand
+    private final List<ChannelSftp> additionalChannels = new ArrayList<>();
+    private ExecutorService pipelineExecutor;
+    // used for the additional channels as well
+    private int connectTimeout;
+
+    @FunctionalInterface
+    private interface RemoteOperation {
+        void run(ChannelSftp channel, String filename) throws SftpException;
+    }
+
     /**
      * Authentication with username and password
      * 
      */
 
     public SftpClient(String username, String password, String hostname, int port, String knownHostsFile, Properties additionalConfig) throws IOException {
+        this(username, password, hostname, port, knownHostsFile, additionalConfig, 0, 0);
+    }
+
+    /**
+     * Authentication with username and password
+     * 
+     * @param connectTimeout maximum time in milliseconds to establish the connection, 0 waits forever
+     * @param readTimeout time in milliseconds without any answer of the server after which the connection is considered as dead, 0 waits
+     *            forever
+     */
+
+    public SftpClient(String username, String password, String hostname, int port, String knownHostsFile, Properties additionalConfig,
+            int connectTimeout, int readTimeout) throws IOException {
         jsch = new JSch();
         try {
             jsch.setKnownHosts(knownHostsFile);
@@ -52,9 +88,7 @@ public class SftpClient {
             jschSession.setPort(port);
             jschSession.setPassword(password);
             setCustomConfig(jschSession,additionalConfig);
-            jschSession.connect();
-            sftpChannel = (ChannelSftp) jschSession.openChannel("sftp");
-            sftpChannel.connect();
+            connect(connectTimeout, readTimeout);
         } catch (JSchException e) {
             throw new IOException(e);
         }
@@ -67,6 +101,20 @@ public class SftpClient {
      */
 
     public SftpClient(String username, String key, String password, String hostname, int port, String knownHostsFile, Properties additionalConfig) throws IOException {
+        this(username, key, password, hostname, port, knownHostsFile, additionalConfig, 0, 0);
+    }
+
+    /**
+     * 
+     * Authentication with key
+     * 
+     * @param connectTimeout maximum time in milliseconds to establish the connection, 0 waits forever
+     * @param readTimeout time in milliseconds without any answer of the server after which the connection is considered as dead, 0 waits
+     *            forever
+     */
+
+    public SftpClient(String username, String key, String password, String hostname, int port, String knownHostsFile, Properties additionalConfig,
+            int connectTimeout, int readTimeout) throws IOException {
         jsch = new JSch();
         try {
             jsch.addIdentity(key, password);
@@ -74,9 +122,7 @@ public class SftpClient {
             jschSession = jsch.getSession(username, hostname);
             jschSession.setPort(port);
             setCustomConfig(jschSession,additionalConfig);
-            jschSession.connect();
-            sftpChannel = (ChannelSftp) jschSession.openChannel("sftp");
-            sftpChannel.connect();
+            connect(connectTimeout, readTimeout);
         } catch (JSchException e) {
             throw new IOException(e);
         }
@@ -88,6 +134,18 @@ public class SftpClient {
         }
     }
 
+    private void connect(int connectTimeout, int readTimeout) throws JSchException {
+        if (readTimeout > 0) {
+            // the session sends a keep alive message when the server is silent for readTimeout, and fails when the next one stays unanswered
+            jschSession.setServerAliveInterval(readTimeout);
+            jschSession.setServerAliveCountMax(1);
+        }
+        jschSession.connect(connectTimeout);
+        sftpChannel = (ChannelSftp) jschSession.openChannel("sftp");
+        sftpChannel.connect(connectTimeout);
+        this.connectTimeout = connectTimeout;
+    }
+
 
     /**
      * Change remote folder
@@ -128,19 +186,44 @@ public class SftpClient {
 
     public List<String> listContent() throws IOException {
         List<String> content = new ArrayList<>();
-        List<LsEntry> lsList;
         try {
-            lsList = sftpChannel.ls(".");
+            // keep only the names, not the complete entries
+            sftpChannel.ls(".", entry -> {
+                content.add(entry.getFilename());
+                return LsEntrySelector.CONTINUE;
+            });
         } catch (SftpException e) {
             throw new IOException(e);
         }
-        for (LsEntry entry : lsList) {
-            content.add(entry.getFilename());
-        }
         Collections.sort(content);
         return content;
     }
 
+    /**
+     * get files of the remote folder with size and modification time
+     * 
+     * @param filter accepts the names of the files to return
+     * @return matching files, sorted by name
+     * @throws IOException
+     */
+
+    public List<RemoteFile> listFiles(Predicate<String> filter) throws IOException {
+        List<RemoteFile> content = new ArrayList<>();
+        try {
+            sftpChannel.ls(".", entry -> {
+                String filename = entry.getFilename();
+                if (!entry.getAttrs().isDir() && filter.test(filename)) {
+                    content.add(new RemoteFile(filename, entry.getAttrs().getSize(), entry.getAttrs().getMTime()));
+                }
+                return LsEntrySelector.CONTINUE;
+            });
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+        content.sort((f1, f2) -> f1.getName().compareTo(f2.getName()));
+        return content;
+    }
+
     /**
      * Download a remote file into a given folder
      * 
@@ -161,21 +244,194 @@ public class SftpClient {
     }
 
     /**
-     * Upload a file into the current remote folder
+     * Download a remote file into a stream
+     * 
+     * @param filename
+     * @param destination
+     * @throws IOException
+     */
+
+    public void downloadFile(String filename, OutputStream destination) throws IOException {
+        try {
+            sftpChannel.get(filename, destination);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Open a stream to read a remote file. The stream must be closed before the next operation on this client.
+     * 
+     * @param filename name of the remote file
+     * @return input stream
+     * @throws IOException
+     */
+
+    public InputStream openDownloadStream(String filename) throws IOException {
+        try {
+            return sftpChannel.get(filename);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Upload a file into the current remote folder. The upload bandwidth is limited by the {@link TransferRateLimiter}.
      * 
      * @param file
+     * @return number of uploaded bytes
      * @throws SftpException
      */
 
-    public void uploadFile(Path file) throws IOException {
+    public long uploadFile(Path file) throws IOException {
+        return uploadFile(Files.newInputStream(file), file.getFileName().toString());
+    }
+
+    /**
+     * Upload the content of a stream into the current remote folder. The stream gets closed.
+     * 
+     * @param source content of the file
+     * @param filename name of the remote file
+     * @return number of uploaded bytes
+     * @throws IOException
+     */
+
+    public long uploadFile(InputStream source, String filename) throws IOException {
+        long start = System.nanoTime();
+        try (ThrottledInputStream in = new ThrottledInputStream(source, TransferRateLimiter.getInstance())) {
+            sftpChannel.put(in, filename);
+            TransferRateLimiter.logThroughput(filename, in.getBytesRead(), System.nanoTime() - start);
+            return in.getBytesRead();
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Open a stream to write a file into the current remote folder. The file is complete when the stream is closed.
+     * 
+     * @param filename name of the remote file
+     * @return output stream
+     * @throws IOException
+     */
+
+    public OutputStream openUploadStream(String filename) throws IOException {
+        try {
+            return sftpChannel.put(filename);
+        } catch (SftpException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public void renameFile(String oldName, String newName) throws IOException {
         try {
-            sftpChannel.put(file.toString(), file.getFileName().toString());
+            sftpChannel.rename(oldName, newName);
         } catch (SftpException e) {
             throw new IOException(e);
         }
     }
 
+    /**
+     * Delete several files of the current remote folder. Up to parallelRequests deletions are in flight at the same time.
+     * 
+     * @param filenames names of the files to delete
+     * @throws IOException
+     */
+
+    public void deleteFiles(Collection<String> filenames) throws IOException {
+        String folder = getAbsoluteRemoteFolder();
+        runPipelined(filenames, (channel, filename) -> channel.rm(folder + filename));
+    }
+
+    private String getAbsoluteRemoteFolder() throws IOException {
+        String folder = getRemoteFolder();
+        return folder.endsWith("/") ? folder : folder + "/";
+    }
+
+    /**
+     * Run the operation for all files. Each channel of the session handles one request at a time, so the requests are distributed over
+     * several channels to avoid waiting a full round trip for each file.
+     */
+    private void runPipelined(Collection<String> filenames, RemoteOperation operation) throws IOException {
+        if (filenames.isEmpty()) {
+            return;
+        }
+        if (filenames.size() == 1 || parallelRequests <= 1) {
+            for (String filename : filenames) {
+                try {
+                    operation.run(sftpChannel, filename);
+                } catch (SftpException e) {
+                    throw new IOException(e);
+                }
+            }
+            return;
+        }
+
+        // the main channel is idle while we wait, use it as well
+        BlockingQueue<ChannelSftp> channels = new LinkedBlockingQueue<>(openAdditionalChannels(Math.min(parallelRequests, filenames.size()) - 1));
+        channels.add(sftpChannel);
+
+        ExportWatchdog.Watch watch = ExportWatchdog.current();
+        List<Future<Void>> results = new ArrayList<>();
+        for (String filename : filenames) {
+            results.add(pipelineExecutor.submit(() -> {
+                ChannelSftp channel = channels.take();
+                try (ExportWatchdog.Registration registration = watch.bind()) {
+                    operation.run(channel, filename);
+                } finally {
+                    channels.add(channel);
+                }
+                return null;
+            }));
+        }
+
+        IOException exception = null;
+        for (Future<Void> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    exception = new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private synchronized List<ChannelSftp> openAdditionalChannels(int count) throws IOException {
+        try {
+            while (additionalChannels.size() < count) {
+                ChannelSftp channel = (ChannelSftp) jschSession.openChannel("sftp");
+                channel.connect(connectTimeout);
+                additionalChannels.add(channel);
+            }
+        } catch (JSchException e) {
+            throw new IOException(e);
+        }
+        if (pipelineExecutor == null) {
+            pipelineExecutor = ExportExecutors.getInstance().newIoExecutor("heris-sftp", parallelRequests);
+        }
+        return new ArrayList<>(additionalChannels.subList(0, count));
+    }
+
+    public void setParallelRequests(int parallelRequests) {
+        this.parallelRequests = Math.max(1, parallelRequests);
+    }
+
     public void close() {
+        if (pipelineExecutor != null) {
+            pipelineExecutor.shutdownNow();
+        }
+        for (ChannelSftp channel : additionalChannels) {
+            if (channel.isConnected()) {
+                channel.disconnect();
+            }
+        }
         if (sftpChannel != null && sftpChannel.isConnected()) {
             sftpChannel.disconnect();
         }
@@ -185,6 +441,15 @@ public class SftpClient {
 
     }
 
+    /**
+     * Drop the connection from another thread, blocked operations fail immediately. The client must still be closed.
+     */
+    public void abort() {
+        if (jschSession != null) {
+            jschSession.disconnect();
+        }
+    }
+
     public void createSubFolder(String foldername) throws IOException {
         try {
             sftpChannel.mkdir(foldername);
@@ -0,0 +1,335 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Export target on a remote SFTP server
+ */
+@Log4j2
+@Getter
+@Setter
+public class SftpExportTarget implements ExportTarget {
+
+    private String username;
+    private String password;
+    private String keyfile;
+    private String hostname;
+    private String knownHosts;
+    private String ftpFolder;
+    private int port = 22;
+    private Properties sftpConfig = new Properties();
+
+    // upload all files as a single zip archive instead of one transfer per file
+    private boolean packageAsArchive = false;
+
+    // number of remote operations in flight when old images are deleted
+    private int parallelRequests = 4;
+
+    // timeouts of the connection in milliseconds, 0 waits forever
+    private int connectTimeout = 0;
+    private int readTimeout = 0;
+
+    private volatile SftpClient utils = null;
+
+    private ExportTrace trace = ExportTrace.DISABLED;
+
+    @Override
+    public void connect() throws IOException {
+        try (ExportTrace.Span span = trace.start("connect", "sftp").arg("host", hostname)) {
+            try {
+                openClient();
+            } catch (IOException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+
+    private void openClient() throws IOException {
+        // first option, use passphrase protected keyfile
+        if (StringUtils.isNotBlank(keyfile) && StringUtils.isNotBlank(password)) {
+            utils = new SftpClient(username, keyfile, password, hostname, port, knownHosts, sftpConfig, connectTimeout, readTimeout);
+        }
+        // second option: use keyfile without passphrase
+        else if (StringUtils.isNotBlank(keyfile)) {
+            utils = new SftpClient(username, keyfile, null, hostname, port, knownHosts, sftpConfig, connectTimeout, readTimeout);
+        }
+        // third option, username + password
+        else {
+            utils = new SftpClient(username, password, hostname, port, knownHosts, sftpConfig, connectTimeout, readTimeout);
+        }
+        utils.setParallelRequests(parallelRequests);
+    }
+
+    @Override
+    public boolean downloadExistingJsonFile(String herisId, StagingArea staging) throws IOException {
+        String jsonFile = herisId + ".json";
+        // open configured folder
+        utils.changeRemoteFolder(ftpFolder);
+        if (packageAsArchive) {
+            return downloadJsonFromArchive(herisId, staging);
+        }
+
+        // check for existing data in previous exports
+        utils.changeRemoteFolder(herisId);
+        List<String> dataInFolder;
+        try (ExportTrace.Span span = trace.start("list", "sftp")) {
+            dataInFolder = utils.listContent();
+        }
+
+        // download existing data
+        if (!dataInFolder.contains(jsonFile)) {
+            return false;
+        }
+        try (ExportTrace.Span span = trace.start("download", "sftp").arg("file", jsonFile);
+                OutputStream out = staging.newOutputStream(jsonFile)) {
+            utils.downloadFile(jsonFile, out);
+        }
+        return true;
+    }
+
+    @Override
+    public void publish(String herisId, StagingArea staging) throws IOException {
+        if (packageAsArchive) {
+            publishArchive(herisId, staging);
+            return;
+        }
+        // open remote folder
+        utils.changeRemoteFolder(ftpFolder);
+        // list content, check if sub folder for heris id exists
+        List<String> content;
+        try (ExportTrace.Span span = trace.start("list", "sftp")) {
+            content = utils.listContent();
+        }
+        if (!content.contains(herisId)) {
+            // create new remote folder, if missing
+            utils.createSubFolder(herisId);
+        }
+        // switch to heris folder
+        utils.changeRemoteFolder(herisId);
+
+        // list all files in remote folder
+        List<String> localData = staging.list();
+        // images that are not present in local folder anymore
+        List<String> staleImages = new ArrayList<>();
+        try (ExportTrace.Span span = trace.start("list", "sftp")) {
+            for (RemoteFile remoteFile : utils.listFiles(filename -> ExportTarget.isStaleImage(filename, localData))) {
+                staleImages.add(remoteFile.getName());
+            }
+        }
+        // deleting transfers no data, it has a stage of its own and is not measured as a transfer
+        try (ExportWatchdog.Registration stage = ExportWatchdog.current().stage("prune");
+                ExportTrace.Span span = trace.start("prune", "sftp").arg("files", staleImages.size())) {
+            utils.deleteFiles(staleImages);
+        }
+        // upload new images + json + backup file, the throughput is measured on this thread
+        long start = System.nanoTime();
+        long bytes = 0;
+        try (ExportWatchdog.Registration stage = ExportWatchdog.current().transfer("upload")) {
+            for (String localFile : localData) {
+                try (ExportTrace.Span span = trace.start("upload", "sftp").arg("file", localFile)) {
+                    try {
+                        long fileBytes = utils.uploadFile(staging.newInputStream(localFile), localFile);
+                        span.bytes(fileBytes);
+                        bytes += fileBytes;
+                    } catch (IOException e) {
+                        span.fail(e);
+                        throw e;
+                    }
+                }
+            }
+        }
+        logThroughput(herisId, bytes, System.nanoTime() - start);
+    }
+
+    /**
+     * The previous export is a single archive in the configured folder, read the json file from it
+     */
+    private boolean downloadJsonFromArchive(String herisId, StagingArea staging) throws IOException {
+        String archiveName = herisId + ".zip";
+        String jsonFile = herisId + ".json";
+        List<String> content;
+        try (ExportTrace.Span span = trace.start("list", "sftp")) {
+            content = utils.listContent();
+        }
+        if (!content.contains(archiveName)) {
+            return false;
+        }
+        try (ExportTrace.Span span = trace.start("download", "sftp").arg("file", archiveName);
+                ZipInputStream zip = new ZipInputStream(utils.openDownloadStream(archiveName))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (jsonFile.equals(entry.getName())) {
+                    try (OutputStream out = staging.newOutputStream(jsonFile)) {
+                        IOUtils.copy(zip, out);
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stream all files into a single zip archive in the configured remote folder. The archive contains a manifest.json listing the files. It is
+     * written under a temporary name and renamed when it is complete, an incomplete archive is removed.
+     */
+    private void publishArchive(String herisId, StagingArea staging) throws IOException {
+        utils.changeRemoteFolder(ftpFolder);
+        List<String> localData = staging.list();
+
+        String archiveName = herisId + ".zip";
+        String partName = archiveName + ".part";
+        try (ExportWatchdog.Registration stage = ExportWatchdog.current().transfer("upload");
+                ExportTrace.Span span = trace.start("upload", "sftp").arg("file", archiveName)) {
+            try {
+                long bytes = writeArchive(herisId, staging, localData, utils.openUploadStream(partName));
+                span.bytes(bytes);
+            } catch (IOException | RuntimeException e) {
+                span.fail(e);
+                deletePartialUpload(partName);
+                throw e;
+            }
+        }
+
+        // replace the archive of a previous export
+        if (utils.listContent().contains(archiveName)) {
+            utils.deleteFile(archiveName);
+        }
+        utils.renameFile(partName, archiveName);
+    }
+
+    private long writeArchive(String herisId, StagingArea staging, List<String> localData, OutputStream destination) throws IOException {
+        long start = System.nanoTime();
+        long bytes = 0;
+        byte[] buffer = new byte[65536];
+        try (ZipOutputStream zip = new ZipOutputStream(destination)) {
+            zip.putNextEntry(new ZipEntry("manifest.json"));
+            zip.write(createManifest(herisId, staging, localData).getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+
+            for (String localFile : localData) {
+                zip.putNextEntry(createEntry(localFile, staging, buffer));
+                try (ThrottledInputStream in = new ThrottledInputStream(staging.newInputStream(localFile), TransferRateLimiter.getInstance())) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        zip.write(buffer, 0, read);
+                    }
+                    bytes += in.getBytesRead();
+                }
+                zip.closeEntry();
+            }
+        }
+        logThroughput(herisId + ".zip", bytes, System.nanoTime() - start);
+        return bytes;
+    }
+
+    /**
+     * Jpegs are already compressed, deflating them again costs cpu time and saves nothing. They are stored as they are, this requires the size
+     * and checksum before the entry is written.
+     */
+    private static ZipEntry createEntry(String localFile, StagingArea staging, byte[] buffer) throws IOException {
+        ZipEntry entry = new ZipEntry(localFile);
+        String lowerCaseName = localFile.toLowerCase();
+        if (!lowerCaseName.endsWith(".jpg") && !lowerCaseName.endsWith(".jpeg")) {
+            return entry;
+        }
+        CRC32 crc = new CRC32();
+        long size = 0;
+        try (InputStream in = staging.newInputStream(localFile)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                size += read;
+            }
+        }
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(size);
+        entry.setCompressedSize(size);
+        entry.setCrc(crc.getValue());
+        return entry;
+    }
+
+    private void deletePartialUpload(String partName) {
+        try {
+            if (utils.listContent().contains(partName)) {
+                utils.deleteFile(partName);
+            }
+        } catch (IOException e) {
+            // the connection may be gone already, the next export overwrites the file
+            log.warn("Cannot delete incomplete archive {} on {}: {}", partName, hostname, e.getMessage());
+        }
+    }
+
+    private static String createManifest(String herisId, StagingArea staging, List<String> localData) throws IOException {
+        JSONArray files = new JSONArray();
+        for (String localFile : localData) {
+            JSONObject file = new JSONObject();
+            file.put("name", localFile);
+            file.put("size", staging.size(localFile));
+            files.put(file);
+        }
+        JSONObject manifest = new JSONObject();
+        manifest.put("HERIS-ID", herisId);
+        manifest.put("files", files);
+        return manifest.toString();
+    }
+
+    private void logThroughput(String name, long bytes, long nanos) {
+        long millis = Math.max(TimeUnit.NANOSECONDS.toMillis(nanos), 1);
+        log.info("Uploaded {} to {}: {} bytes in {} ms ({} KB/s)", name, hostname, bytes, millis, bytes * 1000 / 1024 / millis);
+    }
+
+    @Override
+    public void abort() {
+        SftpClient client = utils;
+        if (client != null) {
+            client.abort();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (utils != null) {
+            utils.close();
+        }
+    }
+}
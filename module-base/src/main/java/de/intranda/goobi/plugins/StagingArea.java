@@ -0,0 +1,86 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Temporary storage for the images and the JSON file of an export, until they are published to the export target
+ */
+public interface StagingArea extends AutoCloseable {
+
+    /**
+     * Create a new file or replace an existing one. The file becomes visible when the stream is closed.
+     * 
+     * @param filename name of the file
+     * @return stream to write the file content
+     * @throws IOException
+     */
+    OutputStream newOutputStream(String filename) throws IOException;
+
+    InputStream newInputStream(String filename) throws IOException;
+
+    /**
+     * @return names of all files, sorted
+     */
+    List<String> list();
+
+    long size(String filename) throws IOException;
+
+    void rename(String filename, String newFilename) throws IOException;
+
+    /**
+     * Delete a file, e.g. an incomplete one. Missing files are ignored.
+     * 
+     * @param filename name of the file
+     * @throws IOException
+     */
+    void delete(String filename) throws IOException;
+
+    /**
+     * Get the file on disk, if the file is stored in a file system
+     * 
+     * @param filename name of the file
+     * @return path of the file or null, if the file is kept in memory
+     */
+    Path getPath(String filename);
+
+    /**
+     * @return folder containing the files on disk, null if nothing was written to disk
+     */
+    Path getFolder();
+
+    /**
+     * Release the memory held by the files, files on disk are kept. Used instead of {@link #close()} when the temporary files are kept.
+     */
+    default void releaseMemory() {
+        // files on disk don't hold memory
+    }
+
+    /**
+     * delete all files
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,75 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import lombok.Getter;
+
+/**
+ * Input stream that takes the read bytes from the {@link TransferRateLimiter}. The bytes are reported as progress to the {@link ExportWatchdog}
+ * of the export that opened the stream, reading fails as soon as the export is aborted.
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    private final TransferRateLimiter limiter;
+
+    private final ExportWatchdog.Watch watch = ExportWatchdog.current();
+
+    @Getter
+    private long bytesRead = 0;
+
+    public ThrottledInputStream(InputStream in, TransferRateLimiter limiter) {
+        super(in);
+        this.limiter = limiter;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int value = super.read();
+        if (value != -1) {
+            throttle(1);
+        }
+        return value;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            throttle(read);
+        }
+        return read;
+    }
+
+    private void throttle(int bytes) throws IOException {
+        bytesRead += bytes;
+        watch.progress(bytes);
+        watch.checkCancelled();
+        try {
+            limiter.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(watch.isAborted() ? watch.getAbortReason() : "Upload was interrupted");
+        }
+    }
+}
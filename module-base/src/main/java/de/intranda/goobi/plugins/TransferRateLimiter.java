@@ -0,0 +1,136 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Token bucket that limits the upload bandwidth of all concurrent transfers in the JVM. The bandwidth can depend on the time of day, e.g. a low
+ * limit during office hours and full speed at night.
+ */
+@Log4j2
+public final class TransferRateLimiter {
+
+    private static final TransferRateLimiter INSTANCE = new TransferRateLimiter();
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // bandwidth outside of all windows, 0 means unlimited
+    private long defaultBytesPerSecond = 0;
+
+    private List<TransferWindow> windows = new ArrayList<>();
+
+    // available bytes, negative if transfers have reserved more than the bucket holds
+    private double tokens = 0;
+
+    private long lastRefill = System.nanoTime();
+
+    // package-private for unit tests, use the shared instance otherwise
+    TransferRateLimiter() {
+    }
+
+    public static TransferRateLimiter getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Set the bandwidth. The limiter is shared by all exports, it is configured once from the global part of the plugin configuration.
+     * 
+     * @param bytesPerSecond default bandwidth, 0 means unlimited
+     * @param transferWindows time windows with a different bandwidth
+     */
+    public synchronized void configure(long bytesPerSecond, List<TransferWindow> transferWindows) {
+        defaultBytesPerSecond = bytesPerSecond;
+        windows = new ArrayList<>(transferWindows);
+    }
+
+    /**
+     * Get the bandwidth that applies at the given time
+     * 
+     * @param time time of day
+     * @return bytes per second, 0 if unlimited
+     */
+    public synchronized long getBytesPerSecond(LocalTime time) {
+        for (TransferWindow window : windows) {
+            if (window.contains(time)) {
+                return window.getBytesPerSecond();
+            }
+        }
+        return defaultBytesPerSecond;
+    }
+
+    /**
+     * Wait until the given number of bytes may be transferred
+     * 
+     * @param bytes number of bytes
+     * @throws InterruptedException
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes, LocalTime.now(), System.nanoTime());
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Take the bytes from the bucket and calculate how long the caller has to wait. Waiting happens outside of the lock, later callers queue up
+     * behind the reservations of earlier ones.
+     * 
+     * @param bytes number of bytes
+     * @param time time of day, selects the bandwidth
+     * @param now current value of {@link System#nanoTime()}
+     * @return nanoseconds to wait
+     */
+    synchronized long reserve(int bytes, LocalTime time, long now) {
+        long rate = getBytesPerSecond(time);
+        if (rate <= 0) {
+            tokens = 0;
+            lastRefill = now;
+            return 0;
+        }
+        // refill, allow bursts of up to one second
+        tokens = Math.min(rate, tokens + (double) (now - lastRefill) * rate / NANOS_PER_SECOND);
+        lastRefill = now;
+        tokens -= bytes;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens * NANOS_PER_SECOND / rate);
+    }
+
+    /**
+     * Log the achieved throughput of a transfer
+     * 
+     * @param name name of the transferred file or archive
+     * @param bytes transferred bytes
+     * @param nanos duration of the transfer
+     */
+    public static void logThroughput(String name, long bytes, long nanos) {
+        if (log.isDebugEnabled()) {
+            double seconds = Math.max(nanos, 1) / (double) NANOS_PER_SECOND;
+            log.debug("Uploaded {}: {} bytes in {} ms, {} KB/s", name, bytes, TimeUnit.NANOSECONDS.toMillis(nanos),
+                    String.format("%.1f", bytes / seconds / 1024));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ * 
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ * 
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+
+package de.intranda.goobi.plugins;
+
+import java.time.LocalTime;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Daily time window with its own upload bandwidth. Windows may wrap around midnight, e.g. 22:00 - 06:00.
+ */
+@Getter
+@AllArgsConstructor
+public class TransferWindow {
+
+    private LocalTime from;
+
+    private LocalTime to;
+
+    // bytes per second, 0 means unlimited
+    private long bytesPerSecond;
+
+    public boolean contains(LocalTime time) {
+        if (from.isBefore(to)) {
+            return !time.isBefore(from) && time.isBefore(to);
+        }
+        // window wraps around midnight
+        return !time.isBefore(from) || time.isBefore(to);
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Test;
+
+public class AreaAveragingImageScalerTest {
+
+    private static final Dimension BOX = new Dimension(600, 600);
+
+    @Test
+    public void testBitonalPatternBecomesGray() {
+        // a one pixel checkerboard must not produce moire patterns
+        BufferedImage checkerboard = new BufferedImage(1200, 800, BufferedImage.TYPE_BYTE_BINARY);
+        for (int y = 0; y < 800; y++) {
+            for (int x = 0; x < 1200; x++) {
+                if (((x + y) & 1) == 0) {
+                    checkerboard.setRGB(x, y, 0xffffff);
+                }
+            }
+        }
+        BufferedImage scaled = AreaAveragingImageScaler.scale(checkerboard, BOX);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, scaled.getType());
+        assertEquals(600, scaled.getWidth());
+        assertEquals(400, scaled.getHeight());
+        for (int y = 0; y < scaled.getHeight(); y++) {
+            for (int x = 0; x < scaled.getWidth(); x++) {
+                int value = scaled.getRaster().getSample(x, y, 0);
+                assertTrue(value >= 127 && value <= 128);
+            }
+        }
+    }
+
+    @Test
+    public void testColorIsKept() {
+        for (int type : new int[] { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB }) {
+            BufferedImage image = new BufferedImage(1000, 701, type);
+            Graphics2D g = image.createGraphics();
+            g.setColor(new Color(200, 100, 50));
+            g.fillRect(0, 0, 1000, 701);
+            g.dispose();
+
+            BufferedImage scaled = AreaAveragingImageScaler.scale(image, BOX);
+            assertEquals(600, scaled.getWidth());
+            assertEquals(421, scaled.getHeight());
+            assertEquals(0xc86432, scaled.getRGB(0, 0) & 0xffffff);
+            assertEquals(0xc86432, scaled.getRGB(599, 420) & 0xffffff);
+        }
+    }
+
+    @Test
+    public void testSmallImagesAreNotEnlarged() {
+        Dimension size = AreaAveragingImageScaler.getTargetSize(300, 200, BOX);
+        assertEquals(300, size.width);
+        assertEquals(200, size.height);
+        assertEquals(1, AreaAveragingImageScaler.getSubsampling(4000, 3000, BOX));
+        assertEquals(2, AreaAveragingImageScaler.getSubsampling(6000, 3000, BOX));
+    }
+
+    @Test
+    public void testSampleImage() throws Exception {
+        Path master = SyntheticProcessFactory.getResourcesFolder().resolve("sample_media").resolve("Sammelmappe1.pdf_Seite_007.tif");
+        BufferedImage image;
+        try (ImageInputStream in = new FileImageInputStream(master.toFile())) {
+            image = AreaAveragingImageScaler.decode(in, BOX);
+        }
+        assertNotNull(image);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AreaAveragingImageScaler.writeJpeg(AreaAveragingImageScaler.scale(image, BOX), out);
+        BufferedImage jpeg = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(400, jpeg.getWidth());
+        assertEquals(600, jpeg.getHeight());
+    }
+
+    @Test
+    public void testReusedBuffersKeepNoPixels() throws Exception {
+        Path media = SyntheticProcessFactory.getResourcesFolder().resolve("sample_media");
+        Path master = media.resolve("Sammelmappe1.pdf_Seite_008.tif");
+
+        // a new thread starts with empty buffers and a new writer
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        byte[] expected;
+        try {
+            expected = executor.submit(() -> render(master)).get();
+        } finally {
+            executor.shutdown();
+        }
+
+        render(media.resolve("Sammelmappe1.pdf_Seite_007.tif"));
+        render(media.resolve("Sammelmappe1.pdf_Seite_011.tif"));
+        assertArrayEquals(expected, render(master));
+    }
+
+    private static byte[] render(Path master) throws Exception {
+        BufferedImage image;
+        try (ImageInputStream in = new FileImageInputStream(master.toFile())) {
+            image = AreaAveragingImageScaler.decode(in, BOX);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        AreaAveragingImageScaler.writeJpeg(AreaAveragingImageScaler.scale(image, BOX), out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Dimension;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class DerivativeCacheTest {
+
+    private static final Dimension BOX = new Dimension(600, 600);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final AtomicInteger renderCount = new AtomicInteger();
+
+    // writes the name of the master instead of an image
+    private final ImageScaler scaler = (source, box, out, trace) -> {
+        renderCount.incrementAndGet();
+        out.write(source.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+    };
+
+    private Path masterFolder;
+
+    @Before
+    public void setUp() throws Exception {
+        SyntheticProcessFactory.mockConfigurationHelper(folder.newFolder("config").toPath(), folder.newFolder("metadata").toPath());
+        masterFolder = folder.newFolder("masters").toPath();
+    }
+
+    @Test
+    public void testDerivativeIsRenderedOnce() throws Exception {
+        Path master = createMaster("00000001.tif", 1000);
+        DerivativeCache cache = new DerivativeCache(folder.getRoot().toPath().resolve("derivatives"));
+        assertFalse(cache.isCurrent(master));
+
+        Path derivative = cache.render(master, scaler, BOX, ExportTrace.DISABLED);
+        assertEquals(cache.getDerivative(master), derivative);
+        assertEquals("00000001.tif.jpg", derivative.getFileName().toString());
+        assertArrayEquals("00000001.tif".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(derivative));
+        assertTrue(cache.isCurrent(master));
+        assertEquals(1, renderCount.get());
+        // no temporary files are left
+        assertEquals(1, cache.getFolder().toFile().list().length);
+    }
+
+    @Test
+    public void testChangedMasterIsOutdated() throws Exception {
+        Path master = createMaster("00000001.tif", 1000);
+        DerivativeCache cache = new DerivativeCache(folder.getRoot().toPath().resolve("derivatives"));
+        Path derivative = cache.render(master, scaler, BOX, ExportTrace.DISABLED);
+        Files.setLastModifiedTime(derivative, FileTime.fromMillis(1000));
+        assertTrue(cache.isCurrent(master));
+
+        Files.setLastModifiedTime(master, FileTime.fromMillis(2000));
+        assertFalse(cache.isCurrent(master));
+    }
+
+    @Test
+    public void testDeselectedImagesAreDeleted() throws Exception {
+        DerivativeCache cache = new DerivativeCache(folder.getRoot().toPath().resolve("derivatives"));
+        for (String name : Arrays.asList("00000001.tif", "00000002.tif", "00000003.tif")) {
+            cache.render(createMaster(name, 1000), scaler, BOX, ExportTrace.DISABLED);
+        }
+        cache.retain(Arrays.asList("00000002.tif"));
+        assertEquals(Collections.singletonList("00000002.tif.jpg"), Arrays.asList(cache.getFolder().toFile().list()));
+    }
+
+    private Path createMaster(String name, long lastModified) throws Exception {
+        Path master = masterFolder.resolve(name);
+        Files.write(master, new byte[] { 1, 2, 3 });
+        Files.setLastModifiedTime(master, FileTime.fromMillis(lastModified));
+        return master;
+    }
+}
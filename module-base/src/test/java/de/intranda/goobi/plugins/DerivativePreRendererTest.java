@@ -0,0 +1,135 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.goobi.beans.Process;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class DerivativePreRendererTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path derivativeFolder;
+    private Path exportFolder;
+    private SyntheticProcessFactory processFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        Path resourcesFolder = SyntheticProcessFactory.getResourcesFolder();
+        System.setProperty("log4j.configurationFile", resourcesFolder.resolve("log4j2.xml").toString());
+
+        derivativeFolder = folder.newFolder("derivatives").toPath();
+        exportFolder = folder.newFolder("export").toPath();
+        Path configFolder = folder.newFolder("config").toPath();
+        SyntheticProcessFactory.writePluginConfiguration(configFolder, "<local use=\"true\"><exportFolder>" + exportFolder
+                + "</exportFolder></local><prerender enabled=\"true\" folder=\"" + derivativeFolder + "\" /><scaling engine=\"java\" />");
+
+        Path metadataFolder = folder.newFolder("metadata").toPath();
+        processFactory = new SyntheticProcessFactory(metadataFolder, resourcesFolder.resolve("sample_media"));
+        SyntheticProcessFactory.mockConfigurationHelper(configFolder, metadataFolder);
+    }
+
+    @Test
+    public void testSelectedImagesAreRenderedOnce() throws Exception {
+        Process process = processFactory.createProcess(500, "6001", 4, 2);
+        HerisExportConfiguration configuration = HerisExportPlugin.readConfiguration(process);
+        Set<String> imageNames = HerisExportPlugin.readSelectedImages(process, configuration.getPropertyName()).keySet();
+        assertEquals(2, DerivativePreRenderer.getInstance().preRender(process, configuration, imageNames, () -> true));
+
+        // the derivatives of each engine are kept apart
+        Path cacheFolder = derivativeFolder.resolve("500").resolve("java");
+        assertEquals(Arrays.asList(SyntheticProcessFactory.getImageName(1) + ".jpg", SyntheticProcessFactory.getImageName(2) + ".jpg"),
+                list(cacheFolder));
+
+        // all derivatives are current
+        assertEquals(0, DerivativePreRenderer.getInstance().preRender(process, configuration, imageNames, () -> true));
+    }
+
+    @Test(timeout = 60000)
+    public void testQueuedExportRendersWhileRecordIsBusy() throws Exception {
+        Process process = processFactory.createProcess(501, "6002", 2, 2);
+        CountDownLatch exportStarted = new CountDownLatch(1);
+        CountDownLatch releaseExport = new CountDownLatch(1);
+        FutureTask<ExportCoordinator.ExportResult> running = new FutureTask<>(() -> ExportCoordinator.getInstance().run("6002", "6002", () -> {
+            exportStarted.countDown();
+            try {
+                releaseExport.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            return new ExportCoordinator.ExportResult(true, Collections.emptyList());
+        }));
+        new Thread(running).start();
+        exportStarted.await();
+
+        // the export of the process waits for the running export of its record and renders its derivatives meanwhile
+        HerisExportPlugin plugin = new HerisExportPlugin();
+        FutureTask<Boolean> queued = new FutureTask<>(() -> plugin.startExport(process));
+        new Thread(queued).start();
+        Path cacheFolder = derivativeFolder.resolve("501").resolve("java");
+        List<String> derivatives = Arrays.asList(SyntheticProcessFactory.getImageName(1) + ".jpg", SyntheticProcessFactory.getImageName(2) + ".jpg");
+        while (!Files.isDirectory(cacheFolder) || !list(cacheFolder).equals(derivatives)) {
+            Thread.sleep(10);
+        }
+        assertFalse(queued.isDone());
+        assertFalse(Files.exists(exportFolder.resolve("6002")));
+
+        releaseExport.countDown();
+        assertTrue(running.get().isSuccess());
+        assertTrue(queued.get());
+        assertTrue(Files.exists(exportFolder.resolve("6002").resolve("6002.json")));
+    }
+
+    private static List<String> list(Path folder) throws Exception {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+
+public class ExportCoordinatorTest {
+
+    private final ExportCoordinator coordinator = ExportCoordinator.getInstance();
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test(timeout = 10000)
+    public void testSameRecordWaitsAndDuplicateJoins() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+
+        RunningExport first = start(() -> coordinator.run("1001", "1001-a", () -> {
+            events.add("first started");
+            firstStarted.countDown();
+            await(releaseFirst);
+            events.add("first finished");
+            return new ExportCoordinator.ExportResult(true, Arrays.asList("image 2 was skipped"));
+        }));
+        firstStarted.await();
+
+        // other data of the same record waits for the lock
+        RunningExport second = start(() -> coordinator.run("1001", "1001-b", () -> {
+            events.add("second started");
+            return result(false);
+        }));
+        // the same data joins the running export
+        RunningExport duplicate = start(() -> coordinator.run("1001", "1001-a", () -> {
+            events.add("duplicate started");
+            return result(false);
+        }));
+        awaitBlocked(second);
+        awaitBlocked(duplicate);
+        assertEquals(Arrays.asList("first started"), events);
+
+        releaseFirst.countDown();
+        ExportCoordinator.ExportResult result = first.get();
+        assertTrue(result.isSuccess());
+        assertEquals(Arrays.asList("image 2 was skipped"), result.getProblems());
+        // the duplicate gets the result and the problems of the export it joined
+        assertSame(result, duplicate.get());
+        assertFalse(second.get().isSuccess());
+        assertEquals(Arrays.asList("first started", "first finished", "second started"), events);
+    }
+
+    @Test(timeout = 10000)
+    public void testDuplicateSharesFailure() throws Exception {
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+
+        RunningExport first = start(() -> coordinator.run("1002", "1002-a", () -> {
+            firstStarted.countDown();
+            await(releaseFirst);
+            throw new IOException("connection lost");
+        }));
+        firstStarted.await();
+        RunningExport duplicate = start(() -> coordinator.run("1002", "1002-a", () -> {
+            events.add("duplicate started");
+            return result(true);
+        }));
+        awaitBlocked(duplicate);
+
+        releaseFirst.countDown();
+        assertFailure(first, "connection lost");
+        assertFailure(duplicate, "connection lost");
+        assertEquals(Collections.emptyList(), events);
+
+        // the failed export does not block later ones
+        assertTrue(coordinator.run("1002", "1002-a", () -> result(true)).isSuccess());
+    }
+
+    @Test(timeout = 10000)
+    public void testQueuedExportPreparesWhileWaiting() throws Exception {
+        CountDownLatch exportStarted = new CountDownLatch(1);
+        CountDownLatch releaseExport = new CountDownLatch(1);
+        RunningExport export = start(() -> coordinator.run("1003", "1003-a", () -> {
+            exportStarted.countDown();
+            await(releaseExport);
+            events.add("first finished");
+            return result(true);
+        }));
+        exportStarted.await();
+
+        CountDownLatch prepared = new CountDownLatch(1);
+        RunningExport queued = start(() -> coordinator.run("1003", "1003-b", waiting -> {
+            events.add("prepare while " + (waiting.getAsBoolean() ? "locked" : "free"));
+            prepared.countDown();
+            // the preparation ends as soon as the record is free
+            while (waiting.getAsBoolean()) {
+                sleep(1);
+            }
+        }, () -> {
+            events.add("second started");
+            return result(true);
+        }));
+        prepared.await();
+        assertEquals(Arrays.asList("prepare while locked"), events);
+
+        releaseExport.countDown();
+        assertTrue(export.get().isSuccess());
+        assertTrue(queued.get().isSuccess());
+        assertEquals(Arrays.asList("prepare while locked", "first finished", "second started"), events);
+
+        // nothing is prepared, if the record is free
+        assertTrue(coordinator.run("1003", "1003-c", waiting -> events.add("prepare"), () -> result(true)).isSuccess());
+        assertEquals(3, events.size());
+    }
+
+    private static ExportCoordinator.ExportResult result(boolean success) {
+        return new ExportCoordinator.ExportResult(success, Collections.emptyList());
+    }
+
+    private static RunningExport start(Callable<ExportCoordinator.ExportResult> export) {
+        RunningExport running = new RunningExport(export);
+        running.thread.start();
+        return running;
+    }
+
+    /**
+     * wait until the thread of the export is parked, either on the lock of the record or on the result of the running export
+     */
+    private static void awaitBlocked(RunningExport export) throws InterruptedException {
+        while (export.thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void assertFailure(RunningExport export, String message) throws InterruptedException {
+        try {
+            export.get();
+            fail("export must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals(message, e.getCause().getMessage());
+        }
+    }
+
+    private static class RunningExport {
+        private final FutureTask<ExportCoordinator.ExportResult> result;
+        private final Thread thread;
+
+        private RunningExport(Callable<ExportCoordinator.ExportResult> export) {
+            result = new FutureTask<>(export);
+            thread = new Thread(result);
+            thread.setDaemon(true);
+        }
+
+        private ExportCoordinator.ExportResult get() throws InterruptedException, ExecutionException {
+            return result.get();
+        }
+    }
+}
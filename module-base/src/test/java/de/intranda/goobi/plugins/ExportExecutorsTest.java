@@ -0,0 +1,92 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class ExportExecutorsTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test(timeout = 10000)
+    public void testInterruptedCallerWaitsForRunningTask() throws Exception {
+        CountDownLatch taskStarted = new CountDownLatch(1);
+        CountDownLatch releaseTask = new CountDownLatch(1);
+        Thread caller = new Thread(() -> {
+            try {
+                ExportExecutors.getInstance().runCpuBound(() -> {
+                    taskStarted.countDown();
+                    // ignores the interrupt, like a decoder in native code
+                    while (true) {
+                        try {
+                            releaseTask.await();
+                            break;
+                        } catch (InterruptedException e) {
+                            events.add("task interrupted");
+                        }
+                    }
+                    events.add("task finished");
+                });
+                fail("the interrupted caller must fail");
+            } catch (InterruptedIOException e) {
+                events.add("caller returned");
+            } catch (Exception e) {
+                events.add("unexpected " + e);
+            }
+        });
+        caller.start();
+        taskStarted.await();
+        caller.interrupt();
+
+        // the caller is blocked until the task stopped
+        while (events.isEmpty()) {
+            Thread.sleep(1);
+        }
+        awaitWaiting(caller);
+        assertEquals(Arrays.asList("task interrupted"), events);
+
+        releaseTask.countDown();
+        caller.join();
+        assertEquals(Arrays.asList("task interrupted", "task finished", "caller returned"), events);
+    }
+
+    @Test(timeout = 10000)
+    public void testTaskRunsOnCpuThread() throws Exception {
+        List<String> threads = new ArrayList<>();
+        ExportExecutors.getInstance().runCpuBound(() -> threads.add(Thread.currentThread().getName()));
+        assertEquals(1, threads.size());
+        assertTrue(threads.get(0).startsWith("heris-cpu-"));
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
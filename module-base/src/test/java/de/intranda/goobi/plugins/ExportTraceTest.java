@@ -0,0 +1,97 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportTraceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testChromeTraceFormat() throws Exception {
+        ExportTrace trace = ExportTrace.create();
+        try (ExportTrace.Span span = trace.start("upload", "sftp").arg("file", "1.jpg")) {
+            span.bytes(1234);
+        }
+        try (ExportTrace.Span span = trace.start("scale", "image")) {
+            span.fail(new IOException("broken image"));
+        }
+
+        Path file = folder.getRoot().toPath().resolve("trace").resolve("trace.json");
+        trace.write(file, "HERIS export 21");
+
+        JSONObject json = new JSONObject(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        JSONArray events = json.getJSONArray("traceEvents");
+        JSONObject upload = null;
+        JSONObject scale = null;
+        int threadNames = 0;
+        for (int i = 0; i < events.length(); i++) {
+            JSONObject event = events.getJSONObject(i);
+            if ("upload".equals(event.getString("name"))) {
+                upload = event;
+            } else if ("scale".equals(event.getString("name"))) {
+                scale = event;
+            } else if ("thread_name".equals(event.getString("name"))) {
+                threadNames++;
+            }
+        }
+        assertEquals(1, threadNames);
+
+        assertEquals("X", upload.getString("ph"));
+        assertEquals("sftp", upload.getString("cat"));
+        assertTrue(upload.getLong("ts") >= 0);
+        assertTrue(upload.getLong("dur") >= 0);
+        assertEquals(Thread.currentThread().getId(), upload.getLong("tid"));
+        assertEquals(1234, upload.getJSONObject("args").getLong("bytes"));
+        assertEquals("1.jpg", upload.getJSONObject("args").getString("file"));
+        assertEquals("ok", upload.getJSONObject("args").getString("outcome"));
+
+        assertEquals("error: broken image", scale.getJSONObject("args").getString("outcome"));
+    }
+
+    @Test
+    public void testDisabledTrace() throws Exception {
+        ExportTrace trace = ExportTrace.DISABLED;
+        assertFalse(trace.isEnabled());
+        ExportTrace.Span first = trace.start("upload", "sftp");
+        ExportTrace.Span second = trace.start("scale", "image");
+        // no allocation per span
+        assertSame(first, second);
+        first.bytes(10).arg("file", "1.jpg").close();
+
+        Path file = folder.getRoot().toPath().resolve("trace.json");
+        trace.write(file, "disabled");
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class ExportWatchdogTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // checked only by the test, with its own clock
+    private final ExportWatchdog watchdog = new ExportWatchdog(0);
+
+    @Test
+    public void testStageDeadlineInterruptsExport() throws Exception {
+        AtomicBoolean aborted = new AtomicBoolean();
+        ExportDeadlines deadlines = new ExportDeadlines(0, Collections.singletonMap("image", 1L), 0, 0);
+        try (ExportWatchdog.Watch watch = watchdog.start("1", deadlines)) {
+            assertSame(watch, ExportWatchdog.current());
+            watch.onAbort(() -> aborted.set(true));
+            try (ExportWatchdog.Registration stage = watch.stage("image")) {
+                long now = System.nanoTime();
+                watchdog.checkAll(now);
+                assertFalse(watch.isAborted());
+
+                watchdog.checkAll(now + 2 * SECOND);
+                assertTrue(watch.isAborted());
+                assertTrue(Thread.currentThread().isInterrupted());
+            }
+            assertTrue(aborted.get());
+            assertEquals("stage image exceeded its deadline of 1 seconds", watch.getAbortReason());
+            try {
+                watch.checkCancelled();
+                fail("an aborted export must not continue");
+            } catch (InterruptedIOException e) {
+                assertEquals(watch.getAbortReason(), e.getMessage());
+            }
+        }
+        // the thread can be used again
+        assertFalse(Thread.currentThread().isInterrupted());
+        assertFalse(ExportWatchdog.current().isAborted());
+    }
+
+    @Test
+    public void testStalledTransferIsAborted() throws Exception {
+        ExportDeadlines deadlines = new ExportDeadlines(0, Collections.emptyMap(), 1024, 1);
+        try (ExportWatchdog.Watch watch = watchdog.start("2", deadlines);
+                ExportWatchdog.Registration stage = watch.transfer("publish")) {
+            long now = System.nanoTime();
+            watchdog.checkAll(now);
+            // enough progress
+            for (int i = 0; i < 5; i++) {
+                watch.progress(2000);
+                now += SECOND;
+                watchdog.checkAll(now);
+            }
+            assertFalse(watch.isAborted());
+
+            // no progress anymore
+            now += SECOND;
+            watchdog.checkAll(now);
+            assertTrue(watch.getAbortReason().startsWith("the transfer in stage publish stalled"));
+            try (ThrottledInputStream in = new ThrottledInputStream(new ByteArrayInputStream(new byte[100]), TransferRateLimiter.getInstance())) {
+                in.read();
+                fail("reading must fail after the abort");
+            } catch (InterruptedIOException e) {
+                // expected
+            }
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    public void testNestedStageIsNotMeasured() throws Exception {
+        ExportDeadlines deadlines = new ExportDeadlines(0, Collections.emptyMap(), 1024, 1);
+        try (ExportWatchdog.Watch watch = watchdog.start("3", deadlines);
+                ExportWatchdog.Registration stage = watch.transfer("publish")) {
+            long now = System.nanoTime();
+            watchdog.checkAll(now);
+            // e.g. deleting old files transfers no data
+            try (ExportWatchdog.Registration prune = watch.stage("prune")) {
+                now += 10 * SECOND;
+                watchdog.checkAll(now);
+            }
+            assertFalse(watch.isAborted());
+
+            // the measurement starts again when the transfer continues
+            watchdog.checkAll(now);
+            watch.progress(2000);
+            now += SECOND;
+            watchdog.checkAll(now);
+            assertFalse(watch.isAborted());
+        }
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        try (ExportWatchdog.Watch watch = watchdog.start("4", new ExportDeadlines(3600, Collections.emptyMap(), 0, 0))) {
+            assertNull(watch.getAbortReason());
+            assertFalse(watchdog.cancel("5"));
+            assertTrue(watchdog.cancel("4"));
+            assertEquals("the export was cancelled", watch.getAbortReason());
+        }
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+}
@@ -0,0 +1,300 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import org.goobi.beans.Process;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+
+/**
+ * End-to-end benchmark of the export with an embedded SFTP server. The server is reached through a proxy that simulates latency and a
+ * bandwidth limit. The benchmark is skipped unless it is enabled with -Dheris.benchmark=true, all other parameters are optional:
+ *
+ * <pre>
+ * mvn test -Dtest=HerisExportBenchmarkTest -Dheris.benchmark=true -Dheris.benchmark.processes=20 -Dheris.benchmark.pages=50
+ *     -Dheris.benchmark.selected=20 -Dheris.benchmark.rtt=100 -Dheris.benchmark.bandwidth=1048576 -Dheris.benchmark.concurrency=32
+ * </pre>
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*", "javax.crypto.*", "org.apache.sshd.*",
+        "com.jcraft.jsch.*", "org.bouncycastle.*", "net.i2p.crypto.*" })
+public class HerisExportBenchmarkTest {
+
+    private static final String REMOTE_FOLDER = "/heris/";
+    private static final String MIRROR_FOLDER = "/mirror/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SftpTestServer server;
+    private ThrottledTcpProxy proxy;
+    private Path knownHosts;
+    private SyntheticProcessFactory processFactory;
+    private Path configFolder;
+
+    private int processCount;
+    private int pageCount;
+    private int selectedCount;
+    private long roundTripMillis;
+    private long bandwidth;
+    private int concurrency;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("benchmark is disabled, enable it with -Dheris.benchmark=true", Boolean.getBoolean("heris.benchmark"));
+
+        processCount = Integer.getInteger("heris.benchmark.processes", 10);
+        pageCount = Integer.getInteger("heris.benchmark.pages", 20);
+        selectedCount = Integer.getInteger("heris.benchmark.selected", 10);
+        roundTripMillis = Long.getLong("heris.benchmark.rtt", 50);
+        bandwidth = Long.getLong("heris.benchmark.bandwidth", 0);
+        concurrency = Integer.getInteger("heris.benchmark.concurrency", 16);
+
+        Path resourcesFolder = SyntheticProcessFactory.getResourcesFolder();
+        System.setProperty("log4j.configurationFile", resourcesFolder.resolve("log4j2.xml").toString());
+
+        // sftp server with a virtual root folder
+        server = new SftpTestServer(folder.getRoot().toPath());
+        server.createRemoteFolder(REMOTE_FOLDER);
+        server.createRemoteFolder(MIRROR_FOLDER);
+        proxy = new ThrottledTcpProxy(server.getPort(), roundTripMillis, bandwidth);
+        knownHosts = server.writeKnownHosts(folder.getRoot().toPath().resolve("known_hosts"), proxy.getPort());
+
+        // plugin configuration with sftp enabled
+        configFolder = folder.newFolder("config").toPath();
+        SyntheticProcessFactory.writePluginConfiguration(configFolder, getSftpConfiguration(REMOTE_FOLDER));
+
+        File metadataDirectory = folder.newFolder("metadata");
+        processFactory = new SyntheticProcessFactory(metadataDirectory.toPath(), resourcesFolder.resolve("sample_media"));
+        SyntheticProcessFactory.mockConfigurationHelper(configFolder, metadataDirectory.toPath());
+    }
+
+    private String getSftpConfiguration(String remoteFolder) {
+        return "<sftp use=\"true\"><username>" + SftpTestServer.USERNAME + "</username><password>" + SftpTestServer.PASSWORD + "</password>"
+                + "<hostname>localhost</hostname>"
+                + "<knownHosts>" + knownHosts + "</knownHosts><sftpFolder>" + remoteFolder + "</sftpFolder><port>" + proxy.getPort()
+                + "</port></sftp>";
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (proxy != null) {
+            proxy.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void benchmarkExport() throws Exception {
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < processCount; i++) {
+            processes.add(processFactory.createProcess(100 + i, String.valueOf(1000 + i), pageCount, selectedCount));
+        }
+
+        List<Long> durations = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Process process : processes) {
+            long exportStart = System.nanoTime();
+            assertTrue(new HerisExportPlugin().startExport(process));
+            durations.add(System.nanoTime() - exportStart);
+        }
+        long total = System.nanoTime() - start;
+
+        report("export", durations, total, getRemoteSize());
+    }
+
+    /**
+     * Many exports at the same time, publishing to a single target and to two targets. Compares platform and virtual threads for the I/O
+     * threads, the images are scaled on the bounded cpu pool in all runs.
+     */
+    @Test
+    public void benchmarkConcurrentExports() throws Exception {
+        List<String> modes = new ArrayList<>(Collections.singletonList("platform"));
+        if (ExportExecutors.isVirtualThreadsSupported()) {
+            modes.add("virtual");
+        } else {
+            System.out.println("[heris-benchmark] virtual threads are not supported by this runtime, run the benchmark with Java 21 or newer");
+        }
+
+        // a single target runs its transfers on the export thread, only the pipelined deletes use the io threads. Several targets are
+        // published from the io threads.
+        Map<String, String> targets = new LinkedHashMap<>();
+        targets.put("single", getSftpConfiguration(REMOTE_FOLDER));
+        targets.put("mirrored", getSftpConfiguration(REMOTE_FOLDER) + getSftpConfiguration(MIRROR_FOLDER));
+        int processId = 500;
+        for (String mode : modes) {
+            // the executors are shared by all exports, the configuration file sets them only once
+            ExportExecutors.getInstance().configure("virtual".equals(mode), 0);
+            for (Map.Entry<String, String> target : targets.entrySet()) {
+                SyntheticProcessFactory.writePluginConfiguration(configFolder, target.getValue() + "<scaling engine=\"java\" />");
+                List<Process> processes = new ArrayList<>();
+                for (int i = 0; i < processCount; i++) {
+                    processes.add(processFactory.createProcess(processId, String.valueOf(2000 + processId), pageCount, selectedCount));
+                    processId++;
+                }
+
+                ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+                threads.resetPeakThreadCount();
+                List<Long> durations = Collections.synchronizedList(new ArrayList<>());
+                long remoteSize = getRemoteSize();
+                ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+                long start = System.nanoTime();
+                try {
+                    List<Future<Boolean>> results = new ArrayList<>();
+                    for (Process process : processes) {
+                        results.add(executor.submit(() -> {
+                            long exportStart = System.nanoTime();
+                            boolean result = new HerisExportPlugin().startExport(process);
+                            durations.add(System.nanoTime() - exportStart);
+                            return result;
+                        }));
+                    }
+                    for (Future<Boolean> result : results) {
+                        assertTrue(result.get());
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+                long total = System.nanoTime() - start;
+
+                report("io=" + mode + " targets=" + target.getKey(), durations, total, getRemoteSize() - remoteSize);
+                System.out.println(String.format("[heris-benchmark] io=%s targets=%s concurrency=%d peak platform threads=%d", mode,
+                        target.getKey(), concurrency, threads.getPeakThreadCount()));
+            }
+        }
+        ExportExecutors.getInstance().configure(false, 0);
+    }
+
+    @Test
+    public void benchmarkTransport() throws Exception {
+        Path localFolder = folder.newFolder("upload").toPath();
+        Random random = new Random(42);
+        List<Path> files = new ArrayList<>();
+        long bytes = 0;
+        for (int i = 0; i < selectedCount; i++) {
+            byte[] data = new byte[50_000 + random.nextInt(100_000)];
+            random.nextBytes(data);
+            Path file = localFolder.resolve(String.format("image_%05d.jpg", i));
+            Files.write(file, data);
+            files.add(file);
+            bytes += data.length;
+        }
+
+        List<Long> connect = new ArrayList<>();
+        List<Long> list = new ArrayList<>();
+        List<Long> upload = new ArrayList<>();
+        List<Long> prune = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < processCount; i++) {
+            long time = System.nanoTime();
+            SftpClient client =
+                    new SftpClient(SftpTestServer.USERNAME, SftpTestServer.PASSWORD, "localhost", proxy.getPort(), knownHosts.toString(), null);
+            connect.add(System.nanoTime() - time);
+            try {
+                String remoteFolder = "transport_" + i;
+                client.changeRemoteFolder(REMOTE_FOLDER);
+                time = System.nanoTime();
+                client.listContent();
+                list.add(System.nanoTime() - time);
+                client.createSubFolder(remoteFolder);
+                client.changeRemoteFolder(remoteFolder);
+
+                time = System.nanoTime();
+                for (Path file : files) {
+                    client.uploadFile(file);
+                }
+                upload.add(System.nanoTime() - time);
+
+                time = System.nanoTime();
+                List<String> staleFiles = new ArrayList<>();
+                for (RemoteFile remoteFile : client.listFiles(name -> name.endsWith("jpg"))) {
+                    staleFiles.add(remoteFile.getName());
+                }
+                client.deleteFiles(staleFiles);
+                prune.add(System.nanoTime() - time);
+            } finally {
+                client.close();
+            }
+        }
+        long total = System.nanoTime() - start;
+
+        report("connect", connect, total, 0);
+        report("list", list, total, 0);
+        report("upload", upload, total, bytes * processCount);
+        report("prune", prune, total, 0);
+    }
+
+    private long getRemoteSize() throws IOException {
+        try (Stream<Path> stream = Files.walk(server.getRemoteRoot())) {
+            return stream.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private void report(String label, List<Long> durations, long totalNanos, long bytes) {
+        List<Long> sorted = new ArrayList<>(durations);
+        Collections.sort(sorted);
+        double totalSeconds = totalNanos / 1e9;
+        double operationSeconds = sorted.stream().mapToLong(Long::longValue).sum() / 1e9;
+        System.out.println(String.format(
+                "[heris-benchmark] %-8s processes=%d pages=%d selected=%d rtt=%dms bandwidth=%d B/s | %.1f/min, %.2f MB/s, p50=%.1fms, p99=%.1fms",
+                label, processCount, pageCount, selectedCount, roundTripMillis, bandwidth, sorted.size() / totalSeconds * 60,
+                operationSeconds > 0 ? bytes / operationSeconds / 1_048_576 : 0, percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6));
+    }
+
+    private static long percentile(List<Long> sorted, int percentile) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.easymock.EasyMock;
+import org.goobi.beans.Process;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class, Helper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class HerisExportConcurrencyTest {
+
+    private static final int THREADS = 8;
+    private static final int RECORDS = 4;
+    private static final int PROCESSES_PER_RECORD = 2;
+    private static final int REQUESTS_PER_PROCESS = 3;
+    private static final int SELECTED_IMAGES = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path exportFolder;
+    private Path metadataFolder;
+    private SyntheticProcessFactory processFactory;
+    private int startedExports;
+
+    @Before
+    public void setUp() throws Exception {
+        Path resourcesFolder = SyntheticProcessFactory.getResourcesFolder();
+        System.setProperty("log4j.configurationFile", resourcesFolder.resolve("log4j2.xml").toString());
+
+        exportFolder = folder.newFolder("export").toPath();
+        Path configFolder = folder.newFolder("config").toPath();
+        SyntheticProcessFactory.writePluginConfiguration(configFolder,
+                "<local use=\"true\"><exportFolder>" + exportFolder + "</exportFolder></local><metadata reader=\"streaming\"/>");
+
+        metadataFolder = folder.newFolder("metadata").toPath();
+        processFactory = new SyntheticProcessFactory(metadataFolder, resourcesFolder.resolve("sample_media"));
+        SyntheticProcessFactory.mockConfigurationHelper(configFolder, metadataFolder);
+    }
+
+    @Test
+    public void testConcurrentExportsWithSingleInstance() throws Exception {
+        // several processes share a HERIS ID, each process is exported several times
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < RECORDS * PROCESSES_PER_RECORD; i++) {
+            processes.add(processFactory.createProcess(200 + i, getHerisId(i % RECORDS), 5, SELECTED_IMAGES));
+        }
+
+        HerisExportPlugin plugin = new HerisExportPlugin();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Callable<Boolean>> exports = new ArrayList<>();
+        for (Process process : processes) {
+            for (int i = 0; i < REQUESTS_PER_PROCESS; i++) {
+                exports.add(() -> {
+                    start.await();
+                    return plugin.startExport(process);
+                });
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (Callable<Boolean> export : exports) {
+                results.add(executor.submit(export));
+            }
+            start.countDown();
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(5, TimeUnit.MINUTES));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // each record contains its own images and a complete JSON file
+        for (int i = 0; i < RECORDS; i++) {
+            String herisId = getHerisId(i);
+            Path recordFolder = exportFolder.resolve(herisId);
+            List<String> images;
+            try (Stream<Path> stream = Files.list(recordFolder)) {
+                images = stream.map(p -> p.getFileName().toString()).filter(name -> name.endsWith(".jpg")).sorted().collect(Collectors.toList());
+            }
+            assertEquals(SELECTED_IMAGES, images.size());
+            for (int page = 1; page <= SELECTED_IMAGES; page++) {
+                assertTrue(images.contains("AT-BDA-SYN-" + herisId + "-" + page + ".jpg"));
+            }
+
+            JSONObject json = new JSONObject(new String(Files.readAllBytes(recordFolder.resolve(herisId + ".json")), StandardCharsets.UTF_8));
+            assertEquals(Integer.parseInt(herisId), json.getInt("HERIS-ID"));
+            assertEquals(SELECTED_IMAGES, json.getJSONArray("Bilder").length());
+        }
+    }
+
+    @Test(timeout = 300000)
+    public void testExportsOfTheSameRecordRunOneAtATime() throws Exception {
+        String herisId = getHerisId(RECORDS);
+        Process failing = processFactory.createProcess(300, herisId, 3, 2);
+        Process other = processFactory.createProcess(301, herisId, 3, 2);
+        // the second master of the first process is damaged, its export fails with a problem
+        Path master = metadataFolder.resolve("300").resolve("images").resolve("sample_media").resolve(SyntheticProcessFactory.getImageName(2));
+        Files.write(master, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+        // the failing export is held back while it still holds the lock of the record
+        CountDownLatch failureReported = new CountDownLatch(1);
+        CountDownLatch releaseFailure = new CountDownLatch(1);
+        PowerMock.mockStaticPartial(Helper.class, "addMessageToProcessJournal");
+        Helper.addMessageToProcessJournal(EasyMock.anyInt(), EasyMock.anyObject(), EasyMock.anyString());
+        EasyMock.expectLastCall().andAnswer(() -> {
+            Object[] arguments = EasyMock.getCurrentArguments();
+            if (Integer.valueOf(300).equals(arguments[0]) && String.valueOf(arguments[2]).startsWith("Heris export failed")) {
+                failureReported.countDown();
+                releaseFailure.await();
+            }
+            return null;
+        }).anyTimes();
+        PowerMock.replay(Helper.class);
+
+        HerisExportPlugin plugin = new HerisExportPlugin();
+        FutureTask<ExportCoordinator.ExportResult> first = startExport(plugin, failing);
+        failureReported.await();
+        // the same request joins the running export, the other process of the record waits for the lock
+        FutureTask<ExportCoordinator.ExportResult> duplicate = startExport(plugin, failing);
+        FutureTask<ExportCoordinator.ExportResult> second = startExport(plugin, other);
+        awaitParked("heris-export-1", "get");
+        awaitParked("heris-export-2", "lockInterruptibly");
+        assertFalse(duplicate.isDone());
+        assertFalse(second.isDone());
+        assertFalse(Files.exists(exportFolder.resolve(herisId)));
+
+        releaseFailure.countDown();
+        ExportCoordinator.ExportResult failed = first.get();
+        assertFalse(failed.isSuccess());
+        assertEquals(1, failed.getProblems().size());
+        assertTrue(failed.getProblems().get(0).startsWith("image " + SyntheticProcessFactory.getImageName(2)));
+        // the waiting caller gets the same result and the same problems
+        ExportCoordinator.ExportResult joined = duplicate.get();
+        assertFalse(joined.isSuccess());
+        assertEquals(failed.getProblems(), joined.getProblems());
+
+        ExportCoordinator.ExportResult published = second.get();
+        assertTrue(published.isSuccess());
+        assertTrue(published.getProblems().isEmpty());
+        assertTrue(Files.exists(exportFolder.resolve(herisId).resolve(herisId + ".json")));
+    }
+
+    /**
+     * Start the export on its own thread, the result contains the problems that the plugin reported on that thread
+     */
+    private FutureTask<ExportCoordinator.ExportResult> startExport(HerisExportPlugin plugin, Process process) {
+        FutureTask<ExportCoordinator.ExportResult> export =
+                new FutureTask<>(() -> new ExportCoordinator.ExportResult(plugin.startExport(process), plugin.getProblems()));
+        Thread thread = new Thread(export, "heris-export-" + startedExports++);
+        thread.setDaemon(true);
+        thread.start();
+        return export;
+    }
+
+    /**
+     * Wait until the thread is parked in the given method
+     */
+    private static void awaitParked(String threadName, String methodName) throws InterruptedException {
+        while (true) {
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (threadName.equals(thread.getName()) && thread.getState() == Thread.State.WAITING
+                        && Arrays.stream(thread.getStackTrace()).anyMatch(e -> methodName.equals(e.getMethodName()))) {
+                    return;
+                }
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static String getHerisId(int record) {
+        return String.valueOf(3000 + record);
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.easymock.EasyMock;
+import org.goobi.beans.Process;
+import org.goobi.production.enums.LogType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.Helper;
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.metadaten.MetadatenHelper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ MetadatenHelper.class, VariableReplacer.class, ConfigurationHelper.class, Helper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*" })
+public class HerisExportFailureTest {
+
+    private static final String HERIS_ID = "5001";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path exportFolder;
+    private Path configFolder;
+    private Path metadataFolder;
+    private SyntheticProcessFactory processFactory;
+
+    @Before
+    public void setUp() throws Exception {
+        Path resourcesFolder = SyntheticProcessFactory.getResourcesFolder();
+        System.setProperty("log4j.configurationFile", resourcesFolder.resolve("log4j2.xml").toString());
+
+        exportFolder = folder.newFolder("export").toPath();
+        configFolder = folder.newFolder("config").toPath();
+        SyntheticProcessFactory.writePluginConfiguration(configFolder,
+                "<local use=\"true\"><exportFolder>" + exportFolder + "</exportFolder></local><scaling engine=\"java\" />");
+
+        metadataFolder = folder.newFolder("metadata").toPath();
+        processFactory = new SyntheticProcessFactory(metadataFolder, resourcesFolder.resolve("sample_media"));
+        SyntheticProcessFactory.mockConfigurationHelper(configFolder, metadataFolder);
+    }
+
+    @Test
+    public void testCorruptMasterIsNotPublished() throws Exception {
+        Process process = processFactory.createProcess(400, HERIS_ID, 3, 2);
+        HerisExportPlugin plugin = new HerisExportPlugin();
+        assertTrue(plugin.startExport(process));
+        Path recordFolder = exportFolder.resolve(HERIS_ID);
+        Map<String, byte[]> published = readFiles(recordFolder);
+        assertEquals(3, published.size());
+
+        // the second master gets damaged, the re-export must fail and is reported in the journal
+        Path master = metadataFolder.resolve("400").resolve("images").resolve("sample_media").resolve(SyntheticProcessFactory.getImageName(2));
+        Files.write(master, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        PowerMock.mockStaticPartial(Helper.class, "addMessageToProcessJournal");
+        Helper.addMessageToProcessJournal(EasyMock.eq(400), EasyMock.eq(LogType.ERROR),
+                EasyMock.startsWith("Heris export failed, image " + SyntheticProcessFactory.getImageName(2)));
+        EasyMock.expectLastCall().once();
+        PowerMock.replay(Helper.class);
+
+        assertFalse(plugin.startExport(process));
+        PowerMock.verify(Helper.class);
+        assertEquals(1, plugin.getProblems().size());
+
+        // nothing of the failed export was published, the previous images and the JSON file are unchanged
+        Map<String, byte[]> current = readFiles(recordFolder);
+        assertEquals(published.keySet(), current.keySet());
+        for (Map.Entry<String, byte[]> file : published.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), current.get(file.getKey()));
+        }
+    }
+
+    @Test
+    public void testKeptTempFilesReleaseTheStagingMemory() throws Exception {
+        Path spillFolder = folder.newFolder("spill").toPath();
+        SyntheticProcessFactory.writePluginConfiguration(configFolder, "<local use=\"true\"><exportFolder>" + exportFolder
+                + "</exportFolder></local><scaling engine=\"java\" /><staging type=\"memory\" folder=\"" + spillFolder + "\" />");
+        Process process = processFactory.createProcess(401, "5002", 3, 2);
+        HerisExportPlugin plugin = new HerisExportPlugin();
+        plugin.setCleanupTempFiles(false);
+        long usedMemory = MemoryStagingArea.getUsedMemory();
+        assertTrue(plugin.startExport(process));
+        assertEquals(usedMemory, MemoryStagingArea.getUsedMemory());
+
+        // a failed export leaves its staged images behind
+        Path master = metadataFolder.resolve("401").resolve("images").resolve("sample_media").resolve(SyntheticProcessFactory.getImageName(2));
+        Files.write(master, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        PowerMock.mockStaticPartial(Helper.class, "addMessageToProcessJournal");
+        Helper.addMessageToProcessJournal(EasyMock.anyInt(), EasyMock.anyObject(), EasyMock.anyString());
+        EasyMock.expectLastCall().anyTimes();
+        PowerMock.replay(Helper.class);
+        assertFalse(plugin.startExport(process));
+        assertEquals(usedMemory, MemoryStagingArea.getUsedMemory());
+    }
+
+    private static Map<String, byte[]> readFiles(Path folder) throws IOException {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        try (Stream<Path> stream = Files.list(folder)) {
+            for (Path file : stream.sorted().collect(Collectors.toList())) {
+                files.put(file.getFileName().toString(), Files.readAllBytes(file));
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import de.sub.goobi.config.ConfigurationHelper;
+
+/**
+ * Compares the scaling engines on the sample images. Speed and the bytes allocated by the scaling thread are measured per image, quality as
+ * PSNR against the area averaging of java2d (Image.SCALE_AREA_AVERAGING), which is slow but free of aliasing. The benchmark is skipped unless
+ * it is enabled with -Dheris.benchmark=true:
+ *
+ * <pre>
+ * mvn test -Dtest=ImageScalerBenchmarkTest -Dheris.benchmark=true -Dheris.benchmark.iterations=10
+ * </pre>
+ *
+ * Allocated bytes per image on the bitonal 3192x4790 sample images, Java 17:
+ * <ul>
+ * <li>java: 3.4 MB with a new raster and JPEG writer per image, 1.3 MB with the buffers and the writer of the thread. Most of the rest are
+ * the strip buffers of the TIFF reader.</li>
+ * <li>contentlib: unchanged, every image gets a new ImageManager and JpegInterpreter. The buffers and the writer of the java engine are not
+ * used by this engine.</li>
+ * </ul>
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ ConfigurationHelper.class })
+@PowerMockIgnore({ "javax.management.*", "javax.net.ssl.*", "jdk.internal.reflect.*", "javax.imageio.*", "com.sun.imageio.*" })
+public class ImageScalerBenchmarkTest {
+
+    private static final Dimension BOX = new Dimension(600, 600);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private List<Path> images;
+    private int iterations;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("benchmark is disabled, enable it with -Dheris.benchmark=true", Boolean.getBoolean("heris.benchmark"));
+        iterations = Integer.getInteger("heris.benchmark.iterations", 5);
+
+        Path resourcesFolder = SyntheticProcessFactory.getResourcesFolder();
+        System.setProperty("log4j.configurationFile", resourcesFolder.resolve("log4j2.xml").toString());
+        SyntheticProcessFactory.mockConfigurationHelper(folder.newFolder("config").toPath(), folder.newFolder("metadata").toPath());
+
+        try (Stream<Path> stream = Files.list(resourcesFolder.resolve("sample_media"))) {
+            images = stream.filter(p -> p.getFileName().toString().endsWith(".tif")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Test
+    public void benchmarkScalingEngines() throws Exception {
+        benchmark("contentlib", new ContentLibImageScaler());
+        benchmark("java", new AreaAveragingImageScaler());
+    }
+
+    private void benchmark(String label, ImageScaler scaler) throws Exception {
+        // warm up
+        for (Path image : images) {
+            scaler.createDerivative(image, BOX, new ByteArrayOutputStream(), ExportTrace.DISABLED);
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        List<Long> durations = new ArrayList<>();
+        double psnrSum = 0;
+        long bytes = 0;
+        long allocated = 0;
+        for (Path image : images) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+            for (int i = 0; i < iterations; i++) {
+                out.reset();
+                long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+                long start = System.nanoTime();
+                scaler.createDerivative(image, BOX, out, ExportTrace.DISABLED);
+                durations.add(System.nanoTime() - start);
+                allocated += threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            }
+            bytes += out.size();
+            BufferedImage derivative = ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+            psnrSum += psnr(createReference(image, derivative.getWidth(), derivative.getHeight()), derivative);
+        }
+
+        Collections.sort(durations);
+        System.out.println(String.format("[heris-benchmark] scaling %-10s images=%d iterations=%d | p50=%.1fms, p99=%.1fms, avg size=%d bytes,"
+                + " allocated=%d KB/image, PSNR vs area average=%.2f dB", label, images.size(), iterations, durations.get(durations.size() / 2) / 1e6,
+                durations.get((int) Math.ceil(durations.size() * 0.99) - 1) / 1e6, bytes / images.size(), allocated / durations.size() / 1024,
+                psnrSum / images.size()));
+    }
+
+    private static BufferedImage createReference(Path image, int width, int height) throws Exception {
+        BufferedImage master = ImageIO.read(image.toFile());
+        Image scaled = master.getScaledInstance(width, height, Image.SCALE_AREA_AVERAGING);
+        BufferedImage reference = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = reference.createGraphics();
+        g.drawImage(scaled, 0, 0, null);
+        g.dispose();
+        return reference;
+    }
+
+    /**
+     * peak signal to noise ratio of the luminance, higher is closer to the reference
+     */
+    private static double psnr(BufferedImage reference, BufferedImage image) {
+        double squaredError = 0;
+        for (int y = 0; y < reference.getHeight(); y++) {
+            for (int x = 0; x < reference.getWidth(); x++) {
+                double difference = luminance(reference.getRGB(x, y)) - luminance(image.getRGB(x, y));
+                squaredError += difference * difference;
+            }
+        }
+        double mse = squaredError / (reference.getWidth() * reference.getHeight());
+        return mse == 0 ? 99 : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    private static double luminance(int rgb) {
+        return 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+    }
+}
@@ -0,0 +1,203 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalExportTargetTest {
+
+    private static final String HERIS_ID = "4711";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path exportFolder;
+    private LocalExportTarget target;
+
+    @Before
+    public void setUp() throws Exception {
+        exportFolder = folder.newFolder("export").toPath();
+        target = new LocalExportTarget();
+        target.setExportFolder(exportFolder.toString());
+        target.connect();
+    }
+
+    @Test
+    public void testReexportPrunesImagesAndPublishesJson() throws Exception {
+        try (DiskStagingArea staging = new DiskStagingArea(folder.getRoot().toPath(), "staging")) {
+            write(staging, "a.jpg", "first a");
+            write(staging, "b.jpg", "first b");
+            write(staging, HERIS_ID + ".json", "{\"version\":1}");
+            target.publish(HERIS_ID, staging);
+
+            // staged files on the same file system are linked, not copied
+            assertTrue(Files.isSameFile(staging.getPath("a.jpg"), exportFolder.resolve(HERIS_ID).resolve("a.jpg")));
+        }
+
+        // the selection was reduced to a single image
+        try (DiskStagingArea staging = new DiskStagingArea(folder.getRoot().toPath(), "staging")) {
+            assertTrue(target.downloadExistingJsonFile(HERIS_ID, staging));
+            staging.rename(HERIS_ID + ".json", HERIS_ID + ".json-1");
+            write(staging, "a.jpg", "second a");
+            write(staging, HERIS_ID + ".json", "{\"version\":2}");
+            target.publish(HERIS_ID, staging);
+        }
+
+        Path recordFolder = exportFolder.resolve(HERIS_ID);
+        assertEquals(Arrays.asList("4711.json", "4711.json-1", "a.jpg"), list(recordFolder));
+        assertEquals("second a", read(recordFolder.resolve("a.jpg")));
+        assertEquals("{\"version\":2}", read(recordFolder.resolve(HERIS_ID + ".json")));
+        assertEquals("{\"version\":1}", read(recordFolder.resolve(HERIS_ID + ".json-1")));
+
+        // no leftovers of the transfers
+        assertEquals(Collections.emptyList(), list(exportFolder.resolve(".staging")));
+    }
+
+    @Test
+    public void testJsonIsPublishedLast() throws Exception {
+        try (MemoryStagingArea memory = new MemoryStagingArea(1_000_000, folder.getRoot().toPath(), "staging")) {
+            // the JSON file is sorted before the images
+            write(memory, "0000.json", "{}");
+            write(memory, "a.jpg", "a");
+            write(memory, "b.jpg", "b");
+            RecordingStagingArea staging = new RecordingStagingArea(memory);
+            target.publish("0000", staging);
+
+            assertEquals(3, staging.transferred.size());
+            assertEquals("0000.json", staging.transferred.get(2));
+            // files kept in memory are written into the export folder
+            assertEquals("b", read(exportFolder.resolve("0000").resolve("b.jpg")));
+        }
+    }
+
+    @Test
+    public void testCopyToOtherFileSystem() throws Exception {
+        // the staged files can only be copied, if they are on another file system than the export folder
+        Path sharedMemory = Paths.get("/dev/shm");
+        Assume.assumeTrue(Files.isDirectory(sharedMemory) && Files.isWritable(sharedMemory));
+        Assume.assumeFalse(Files.getFileStore(sharedMemory).equals(Files.getFileStore(exportFolder)));
+
+        try (DiskStagingArea staging = new DiskStagingArea(sharedMemory, "heris-test")) {
+            write(staging, "a.jpg", "copied");
+            write(staging, HERIS_ID + ".json", "{}");
+            target.publish(HERIS_ID, staging);
+
+            Path published = exportFolder.resolve(HERIS_ID).resolve("a.jpg");
+            assertFalse(Files.isSameFile(staging.getPath("a.jpg"), published));
+            assertEquals("copied", read(published));
+        }
+        assertEquals(Collections.emptyList(), list(exportFolder.resolve(".staging")));
+    }
+
+    private static void write(StagingArea staging, String filename, String content) throws IOException {
+        try (OutputStream out = staging.newOutputStream(filename)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> list(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * records the order in which the files are transferred
+     */
+    private static class RecordingStagingArea implements StagingArea {
+        private final StagingArea staging;
+        private final List<String> transferred = new ArrayList<>();
+
+        private RecordingStagingArea(StagingArea staging) {
+            this.staging = staging;
+        }
+
+        @Override
+        public OutputStream newOutputStream(String filename) throws IOException {
+            return staging.newOutputStream(filename);
+        }
+
+        @Override
+        public InputStream newInputStream(String filename) throws IOException {
+            return staging.newInputStream(filename);
+        }
+
+        @Override
+        public List<String> list() {
+            return staging.list();
+        }
+
+        @Override
+        public long size(String filename) throws IOException {
+            return staging.size(filename);
+        }
+
+        @Override
+        public void rename(String filename, String newFilename) throws IOException {
+            staging.rename(filename, newFilename);
+        }
+
+        @Override
+        public void delete(String filename) throws IOException {
+            staging.delete(filename);
+        }
+
+        @Override
+        public Path getPath(String filename) {
+            transferred.add(filename);
+            return staging.getPath(filename);
+        }
+
+        @Override
+        public Path getFolder() {
+            return staging.getFolder();
+        }
+
+        @Override
+        public void close() {
+            staging.close();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MemoryStagingAreaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSmallFilesStayInMemory() throws Exception {
+        // the memory is shared with other staging areas, only the difference is checked
+        long usedMemory = MemoryStagingArea.getUsedMemory();
+        byte[] data = createData(1000);
+        try (MemoryStagingArea staging = new MemoryStagingArea(1_000_000, folder.getRoot().toPath(), "test")) {
+            write(staging, "1.jpg", data);
+            write(staging, "1.json", data);
+            // the allocated chunks are charged, not only the written bytes
+            assertEquals(usedMemory + 2 * MemoryStagingArea.CHUNK_SIZE, MemoryStagingArea.getUsedMemory());
+
+            assertEquals(Arrays.asList("1.jpg", "1.json"), staging.list());
+            assertEquals(1000, staging.size("1.jpg"));
+            assertNull(staging.getPath("1.jpg"));
+            assertNull(staging.getFolder());
+            assertArrayEquals(data, read(staging, "1.jpg"));
+
+            staging.rename("1.json", "1.json-backup");
+            assertEquals(Arrays.asList("1.jpg", "1.json-backup"), staging.list());
+            assertArrayEquals(data, read(staging, "1.json-backup"));
+
+            // replacing a file releases the memory of the old content
+            byte[] larger = createData(MemoryStagingArea.CHUNK_SIZE + 1);
+            write(staging, "1.jpg", larger);
+            assertEquals(usedMemory + 3 * MemoryStagingArea.CHUNK_SIZE, MemoryStagingArea.getUsedMemory());
+            assertEquals(larger.length, staging.size("1.jpg"));
+            assertArrayEquals(larger, read(staging, "1.jpg"));
+        }
+        assertEquals(usedMemory, MemoryStagingArea.getUsedMemory());
+    }
+
+    @Test
+    public void testSpillToDisk() throws Exception {
+        long usedMemory = MemoryStagingArea.getUsedMemory();
+        byte[] small = createData(40_000);
+        byte[] large = createData(200_000);
+        MemoryStagingArea staging = new MemoryStagingArea(usedMemory + 100_000, folder.getRoot().toPath(), "test");
+        write(staging, "small.jpg", small);
+        write(staging, "large.jpg", large);
+
+        assertNull(staging.getPath("small.jpg"));
+        Path spilled = staging.getPath("large.jpg");
+        assertNotNull(spilled);
+        assertTrue(Files.exists(spilled));
+        assertEquals(200_000, staging.size("large.jpg"));
+        assertArrayEquals(large, read(staging, "large.jpg"));
+        assertArrayEquals(small, read(staging, "small.jpg"));
+        // the memory of the spilled file is released
+        assertEquals(usedMemory + 3 * MemoryStagingArea.CHUNK_SIZE, MemoryStagingArea.getUsedMemory());
+
+        // everything gets deleted
+        Path spillFolder = staging.getFolder();
+        staging.close();
+        assertFalse(Files.exists(spillFolder));
+        assertTrue(staging.list().isEmpty());
+        assertEquals(usedMemory, MemoryStagingArea.getUsedMemory());
+    }
+
+    @Test
+    public void testReleaseMemoryKeepsSpilledFiles() throws Exception {
+        long usedMemory = MemoryStagingArea.getUsedMemory();
+        MemoryStagingArea staging = new MemoryStagingArea(usedMemory + 100_000, folder.getRoot().toPath(), "test");
+        byte[] large = createData(200_000);
+        write(staging, "small.jpg", createData(40_000));
+        write(staging, "large.jpg", large);
+        // a stream that is never closed, e.g. after an error
+        OutputStream open = staging.newOutputStream("open.jpg");
+        open.write(createData(1000));
+        assertEquals(usedMemory + 4 * MemoryStagingArea.CHUNK_SIZE, MemoryStagingArea.getUsedMemory());
+
+        staging.releaseMemory();
+        assertEquals(usedMemory, MemoryStagingArea.getUsedMemory());
+        assertEquals(Arrays.asList("large.jpg"), staging.list());
+        assertArrayEquals(large, Files.readAllBytes(staging.getPath("large.jpg")));
+
+        staging.close();
+        assertEquals(usedMemory, MemoryStagingArea.getUsedMemory());
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static void write(StagingArea staging, String filename, byte[] data) throws IOException {
+        try (OutputStream out = staging.newOutputStream(filename)) {
+            // write in chunks, like an image encoder
+            for (int offset = 0; offset < data.length; offset += 4096) {
+                out.write(data, offset, Math.min(4096, data.length - offset));
+            }
+        }
+    }
+
+    private static byte[] read(StagingArea staging, String filename) throws IOException {
+        try (InputStream in = staging.newInputStream(filename)) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.fileformats.mets.MetsMods;
+
+public class MetsRecordReaderTest {
+
+    private Path metaFile;
+    private Prefs prefs;
+
+    @Before
+    public void setUp() throws Exception {
+        Path resourcesFolder = SyntheticProcessFactory.getResourcesFolder();
+        System.setProperty("log4j.configurationFile", resourcesFolder.resolve("log4j2.xml").toString());
+        metaFile = resourcesFolder.resolve("meta.xml");
+        prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder.resolve("ruleset.xml").toString());
+    }
+
+    @Test
+    public void testEquivalentToUgh() throws Exception {
+        assertEquivalent(null);
+    }
+
+    @Test
+    public void testEquivalentToUghWithRequiredMetadata() throws Exception {
+        assertEquivalent(new HashSet<>(Arrays.asList(ExportRecord.HERIS_ID, ExportRecord.SHELFMARK, "TitleDocMain", "Copyright", "Published",
+                "DateRecorded")));
+    }
+
+    @Test
+    public void testAnchorIsNotSupported() throws Exception {
+        String mets = new String(Files.readAllBytes(metaFile), StandardCharsets.UTF_8);
+        mets = mets.replace("<mets:div DMDID=\"DMDLOG_0001\"",
+                "<mets:mptr LOCTYPE=\"URL\" xlink:href=\"meta_anchor.xml\"/><mets:div DMDID=\"DMDLOG_0001\"");
+        try (InputStream in = new ByteArrayInputStream(mets.getBytes(StandardCharsets.UTF_8))) {
+            assertNull(new MetsRecordReader(null).read(in));
+        }
+    }
+
+    private void assertEquivalent(Set<String> metadataNames) throws Exception {
+        Fileformat fileformat = new MetsMods(prefs);
+        fileformat.read(metaFile.toString());
+        ExportRecord expected = ExportRecord.fromFileformat(fileformat, metadataNames);
+
+        ExportRecord actual;
+        try (InputStream in = Files.newInputStream(metaFile)) {
+            actual = new MetsRecordReader(metadataNames).read(in);
+        }
+        assertNotNull(actual);
+
+        assertEquals("21", actual.getHerisId());
+        assertElementEquals(expected.getLogical(), actual.getLogical());
+        assertEquals(5, actual.getPages().size());
+        assertEquals(expected.getPages().size(), actual.getPages().size());
+        for (int i = 0; i < expected.getPages().size(); i++) {
+            ExportPage expectedPage = expected.getPages().get(i);
+            ExportPage actualPage = actual.getPages().get(i);
+            assertEquals(expectedPage.getImageName(), actualPage.getImageName());
+            assertNotNull(actualPage.getPhotograph());
+            assertElementEquals(expectedPage.getPhotograph(), actualPage.getPhotograph());
+        }
+        assertEquals("Sammelmappe1.pdf_Seite_007.tif", actual.getPages().get(0).getImageName());
+        assertEquals("AT-BDA-FA-01-05-GZ-001", actual.getPages().get(0).getPhotograph().getLastValue(ExportRecord.SHELFMARK));
+    }
+
+    private static void assertElementEquals(ExportElement expected, ExportElement actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getMetadata(), actual.getMetadata());
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class MultiExportTargetTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @FunctionalInterface
+    private interface PublishAction {
+        void run(ExportWatchdog.Watch watch) throws IOException, InterruptedException;
+    }
+
+    /**
+     * target that fails the first publish attempts
+     */
+    private static class FakeTarget implements ExportTarget {
+        private final boolean connectionFails;
+        private final int failingAttempts;
+        private final AtomicInteger connects = new AtomicInteger();
+        private final AtomicInteger publishes = new AtomicInteger();
+        // runs on the thread of the target while it publishes, e.g. to enter the stages of the watch
+        private PublishAction publishAction;
+
+        private FakeTarget(boolean connectionFails, int failingAttempts) {
+            this.connectionFails = connectionFails;
+            this.failingAttempts = failingAttempts;
+        }
+
+        private FakeTarget(PublishAction publishAction) {
+            this(false, 0);
+            this.publishAction = publishAction;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            connects.incrementAndGet();
+            if (connectionFails) {
+                throw new IOException("connection refused");
+            }
+        }
+
+        @Override
+        public boolean downloadExistingJsonFile(String herisId, StagingArea staging) {
+            return false;
+        }
+
+        @Override
+        public void publish(String herisId, StagingArea staging) throws IOException {
+            if (publishes.incrementAndGet() <= failingAttempts) {
+                throw new IOException("connection reset");
+            }
+            if (publishAction != null) {
+                try {
+                    publishAction.run(ExportWatchdog.current());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void setTrace(ExportTrace trace) {
+            // not traced
+        }
+
+        @Override
+        public void close() {
+            // nothing to close
+        }
+    }
+
+    @Test
+    public void testOnlyFailedTargetIsRetried() throws Exception {
+        FakeTarget production = new FakeTarget(false, 0);
+        FakeTarget mirror = new FakeTarget(false, 1);
+        FakeTarget backup = new FakeTarget(false, 2);
+        MultiExportTarget target = new MultiExportTarget(2, 0);
+        target.addTarget("production", production);
+        target.addTarget("mirror", mirror);
+        target.addTarget("backup", backup);
+
+        target.connect();
+        target.publish("1", null);
+
+        assertEquals(1, production.publishes.get());
+        assertEquals(2, mirror.publishes.get());
+        assertEquals(3, backup.publishes.get());
+        assertEquals(1, production.connects.get());
+        assertEquals(2, mirror.connects.get());
+        assertEquals("ok", target.getResults().get("production"));
+        assertEquals("ok after 1 retry", target.getResults().get("mirror"));
+        assertEquals("ok after 2 retries", target.getResults().get("backup"));
+    }
+
+    @Test
+    public void testFailureIsReportedPerTarget() throws Exception {
+        FakeTarget production = new FakeTarget(false, 0);
+        FakeTarget mirror = new FakeTarget(true, 0);
+        MultiExportTarget target = new MultiExportTarget(1, 0);
+        target.addTarget("production", production);
+        target.addTarget("mirror", mirror);
+
+        // one target is enough to continue
+        target.connect();
+        try {
+            target.publish("1", null);
+            fail("publishing must fail for the mirror");
+        } catch (IOException e) {
+            assertEquals("Export of HERIS ID 1 failed for mirror (failed: connection refused)", e.getMessage());
+        }
+        assertEquals(1, production.publishes.get());
+        assertEquals(0, mirror.publishes.get());
+        // initial connection and one retry
+        assertEquals(3, mirror.connects.get());
+        assertEquals("ok", target.getResults().get("production"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testConnectFailsWithoutAnyTarget() throws Exception {
+        MultiExportTarget target = new MultiExportTarget(0, 0);
+        target.addTarget("production", new FakeTarget(true, 0));
+        target.connect();
+    }
+
+    @Test(timeout = 10000)
+    public void testUploadIsMeasuredWhileOtherTargetPrunes() throws Exception {
+        CountDownLatch uploadStarted = new CountDownLatch(1);
+        CountDownLatch pruneStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MultiExportTarget target = new MultiExportTarget(0, 0);
+        target.addTarget("production", new FakeTarget(watch -> {
+            try (ExportWatchdog.Registration upload = watch.transfer("upload")) {
+                watch.progress(1);
+                uploadStarted.countDown();
+                release.await();
+            }
+        }));
+        target.addTarget("mirror", new FakeTarget(watch -> {
+            uploadStarted.await();
+            try (ExportWatchdog.Registration prune = watch.stage("prune")) {
+                pruneStarted.countDown();
+                release.await();
+            }
+        }));
+
+        ExportWatchdog watchdog = new ExportWatchdog(0);
+        RunningExport export = new RunningExport(watchdog, target, new CountDownLatch(0));
+        pruneStarted.await();
+
+        // the upload of the production server stalls while the mirror prunes
+        long now = System.nanoTime();
+        watchdog.checkAll(now);
+        watchdog.checkAll(now + 2 * SECOND);
+        ExportWatchdog.Watch watch = export.watch.get();
+        assertTrue(watch.getAbortReason(), watch.getAbortReason().startsWith("the transfer in stage upload stalled"));
+
+        release.countDown();
+        export.thread.join();
+        assertTrue(export.failure.get() instanceof InterruptedIOException);
+    }
+
+    @Test(timeout = 10000)
+    public void testStagesClosedOutOfOrderAreLeft() throws Exception {
+        CountDownLatch uploadStarted = new CountDownLatch(1);
+        CountDownLatch pruneStarted = new CountDownLatch(1);
+        CountDownLatch uploadFinished = new CountDownLatch(1);
+        CountDownLatch releaseUpload = new CountDownLatch(1);
+        CountDownLatch releasePrune = new CountDownLatch(1);
+        MultiExportTarget target = new MultiExportTarget(0, 0);
+        target.addTarget("production", new FakeTarget(watch -> {
+            try (ExportWatchdog.Registration upload = watch.transfer("upload")) {
+                uploadStarted.countDown();
+                releaseUpload.await();
+                watch.progress(100000);
+            }
+            uploadFinished.countDown();
+        }));
+        target.addTarget("mirror", new FakeTarget(watch -> {
+            uploadStarted.await();
+            try (ExportWatchdog.Registration prune = watch.stage("prune")) {
+                pruneStarted.countDown();
+                releasePrune.await();
+            }
+        }));
+
+        // the upload started first and ends first
+        ExportWatchdog watchdog = new ExportWatchdog(0);
+        CountDownLatch finishExport = new CountDownLatch(1);
+        RunningExport export = new RunningExport(watchdog, target, finishExport);
+        pruneStarted.await();
+        releaseUpload.countDown();
+        uploadFinished.await();
+        long now = System.nanoTime();
+        watchdog.checkAll(now);
+        watchdog.checkAll(now + 2 * SECOND);
+        assertFalse(export.watch.get().isAborted());
+        releasePrune.countDown();
+        export.published.await();
+
+        // no stage is open anymore, neither the stage timeout nor the throughput applies
+        watchdog.checkAll(now + 3 * SECOND);
+        watchdog.checkAll(now + 20 * SECOND);
+        assertFalse(export.watch.get().getAbortReason(), export.watch.get().isAborted());
+        finishExport.countDown();
+        export.thread.join();
+        assertEquals(null, export.failure.get());
+    }
+
+    /**
+     * Publishes to the target on a thread of its own, under a watch with stage timeouts and a minimum throughput
+     */
+    private static class RunningExport {
+        private final AtomicReference<ExportWatchdog.Watch> watch = new AtomicReference<>();
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+        private final CountDownLatch published = new CountDownLatch(1);
+        private final Thread thread;
+
+        private RunningExport(ExportWatchdog watchdog, MultiExportTarget target, CountDownLatch finishExport) throws InterruptedException {
+            Map<String, Long> stageTimeouts = new HashMap<>();
+            stageTimeouts.put("prune", 5L);
+            stageTimeouts.put("upload", 10L);
+            ExportDeadlines deadlines = new ExportDeadlines(0, stageTimeouts, 1024, 1);
+            CountDownLatch started = new CountDownLatch(1);
+            thread = new Thread(() -> {
+                try (ExportWatchdog.Watch exportWatch = watchdog.start("1", deadlines)) {
+                    watch.set(exportWatch);
+                    started.countDown();
+                    try {
+                        target.publish("1", null);
+                    } catch (IOException e) {
+                        failure.set(e);
+                    }
+                    // the interrupt of an abort is cleared when the watch is closed
+                    Thread.interrupted();
+                    published.countDown();
+                    finishExport.await();
+                } catch (InterruptedException e) {
+                    failure.set(e);
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            started.await();
+        }
+    }
+}
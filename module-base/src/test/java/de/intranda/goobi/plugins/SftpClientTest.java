@@ -0,0 +1,131 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SftpClientTest {
+
+    private static final String REMOTE_FOLDER = "/heris/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SftpTestServer server;
+    private Path remoteFolder;
+    private SftpClient client;
+
+    // channels opened by the client, including the main channel
+    private final AtomicInteger openedChannels = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SftpTestServer(folder.getRoot().toPath());
+        remoteFolder = server.createRemoteFolder(REMOTE_FOLDER);
+        server.addChannelListener(new ChannelListener() {
+            @Override
+            public void channelOpenSuccess(Channel channel) {
+                openedChannels.incrementAndGet();
+            }
+        });
+        Path knownHosts = server.writeKnownHosts(folder.getRoot().toPath().resolve("known_hosts"), server.getPort());
+
+        client = new SftpClient(SftpTestServer.USERNAME, SftpTestServer.PASSWORD, "localhost", server.getPort(), knownHosts.toString(), null);
+        client.setParallelRequests(4);
+        client.changeRemoteFolder(REMOTE_FOLDER);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testDeleteFilesReusesChannels() throws Exception {
+        client.deleteFiles(createRemoteFiles("a", 10));
+        assertEquals(Collections.emptyList(), list(remoteFolder));
+        // the main channel and three additional ones
+        assertEquals(4, openedChannels.get());
+
+        client.deleteFiles(createRemoteFiles("b", 10));
+        assertEquals(Collections.emptyList(), list(remoteFolder));
+        assertEquals(4, openedChannels.get());
+    }
+
+    @Test
+    public void testDeleteFilesReportsFailure() throws Exception {
+        List<String> filenames = createRemoteFiles("a", 10);
+        filenames.add(5, "missing.jpg");
+        try {
+            client.deleteFiles(filenames);
+            fail("deleting a missing file must fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("No such file"));
+        }
+        // the other deletions are completed before the failure is reported
+        assertEquals(Collections.emptyList(), list(remoteFolder));
+
+        // all channels are returned after the failure and used again
+        int channels = openedChannels.get();
+        client.deleteFiles(createRemoteFiles("b", 10));
+        assertEquals(Collections.emptyList(), list(remoteFolder));
+        assertEquals(channels, openedChannels.get());
+    }
+
+    private List<String> createRemoteFiles(String prefix, int count) throws IOException {
+        List<String> filenames = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String filename = String.format("%s_%05d.jpg", prefix, i);
+            Files.write(remoteFolder.resolve(filename), new byte[] { 1, 2, 3 });
+            filenames.add(filename);
+        }
+        assertEquals(filenames, list(remoteFolder));
+        return filenames;
+    }
+
+    private static List<String> list(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SftpExportTargetTest {
+
+    private static final String REMOTE_FOLDER = "/heris/";
+    private static final String HERIS_ID = "4711";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SftpTestServer server;
+    private Path remoteFolder;
+    private SftpExportTarget target;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new SftpTestServer(folder.getRoot().toPath());
+        remoteFolder = server.createRemoteFolder(REMOTE_FOLDER);
+        Path knownHosts = server.writeKnownHosts(folder.getRoot().toPath().resolve("known_hosts"), server.getPort());
+
+        target = new SftpExportTarget();
+        target.setUsername(SftpTestServer.USERNAME);
+        target.setPassword(SftpTestServer.PASSWORD);
+        target.setHostname("localhost");
+        target.setPort(server.getPort());
+        target.setKnownHosts(knownHosts.toString());
+        target.setFtpFolder(REMOTE_FOLDER);
+        target.setPackageAsArchive(true);
+        target.connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (target != null) {
+            target.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testArchiveKeepsPreviousJson() throws Exception {
+        try (DiskStagingArea staging = new DiskStagingArea(folder.getRoot().toPath(), "staging")) {
+            assertFalse(target.downloadExistingJsonFile(HERIS_ID, staging));
+            write(staging, "a.jpg", "first a");
+            write(staging, HERIS_ID + ".json", "{\"version\":1}");
+            target.publish(HERIS_ID, staging);
+        }
+
+        // the json file of the previous export is read from the archive
+        try (DiskStagingArea staging = new DiskStagingArea(folder.getRoot().toPath(), "staging")) {
+            assertTrue(target.downloadExistingJsonFile(HERIS_ID, staging));
+            assertEquals("{\"version\":1}", read(staging, HERIS_ID + ".json"));
+            staging.rename(HERIS_ID + ".json", HERIS_ID + ".json-1");
+            write(staging, "a.jpg", "second a");
+            write(staging, HERIS_ID + ".json", "{\"version\":2}");
+            target.publish(HERIS_ID, staging);
+        }
+
+        assertEquals(Arrays.asList("4711.zip"), list(remoteFolder));
+        try (ZipFile zip = new ZipFile(remoteFolder.resolve(HERIS_ID + ".zip").toFile())) {
+            assertEquals(Arrays.asList("manifest.json", "4711.json", "4711.json-1", "a.jpg"),
+                    Collections.list(zip.entries()).stream().map(ZipEntry::getName).collect(Collectors.toList()));
+            assertEquals("{\"version\":1}", read(zip, HERIS_ID + ".json-1"));
+            assertEquals("second a", read(zip, "a.jpg"));
+            // images are stored without compression
+            assertEquals(ZipEntry.STORED, zip.getEntry("a.jpg").getMethod());
+            assertEquals(ZipEntry.DEFLATED, zip.getEntry(HERIS_ID + ".json").getMethod());
+        }
+    }
+
+    @Test
+    public void testIncompleteArchiveIsRemoved() throws Exception {
+        try (DiskStagingArea staging = new DiskStagingArea(folder.getRoot().toPath(), "staging")) {
+            write(staging, "a.jpg", "first a");
+            write(staging, HERIS_ID + ".json", "{\"version\":1}");
+            target.publish(HERIS_ID, staging);
+        }
+        byte[] published = Files.readAllBytes(remoteFolder.resolve(HERIS_ID + ".zip"));
+
+        try (DiskStagingArea staging = new DiskStagingArea(folder.getRoot().toPath(), "staging")) {
+            write(staging, "a.jpg", "second a");
+            write(staging, HERIS_ID + ".json", "{\"version\":2}");
+            // the second image cannot be read, the upload fails after the first one
+            Files.createDirectory(staging.getPath("b.jpg"));
+            try {
+                target.publish(HERIS_ID, staging);
+                fail("publishing an unreadable file must fail");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        // the archive of the previous export is untouched, the partial upload is gone
+        assertEquals(Arrays.asList("4711.zip"), list(remoteFolder));
+        assertArrayEquals(published, Files.readAllBytes(remoteFolder.resolve(HERIS_ID + ".zip")));
+    }
+
+    private static void write(StagingArea staging, String filename, String content) throws IOException {
+        try (OutputStream out = staging.newOutputStream(filename)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String read(StagingArea staging, String filename) throws IOException {
+        try (InputStream in = staging.newInputStream(filename)) {
+            return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String read(ZipFile zip, String name) throws IOException {
+        try (InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static List<String> list(Path folder) throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.map(p -> p.getFileName().toString()).sorted().collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.Collections;
+
+import org.apache.sshd.common.channel.ChannelListener;
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.config.keys.PublicKeyEntry;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+/**
+ * Embedded SFTP server on localhost for the tests. It accepts a single user with a password, its root is the folder remote inside of the
+ * given working folder, and it uses a generated EC host key that can be written into a known hosts file.
+ */
+public class SftpTestServer implements Closeable {
+
+    public static final String USERNAME = "heris";
+    public static final String PASSWORD = "heris";
+
+    private final SshServer sshServer;
+    private final Path remoteRoot;
+    private final PublicKey hostKey;
+
+    /**
+     * Start the server
+     * 
+     * @param workingFolder folder for the remote root and the host key, e.g. the root of a TemporaryFolder
+     * @throws Exception
+     */
+    public SftpTestServer(Path workingFolder) throws Exception {
+        remoteRoot = Files.createDirectories(workingFolder.resolve("remote"));
+        SimpleGeneratorHostKeyProvider hostKeyProvider = new SimpleGeneratorHostKeyProvider(workingFolder.resolve("hostkey.ser"));
+        hostKeyProvider.setAlgorithm(KeyUtils.EC_ALGORITHM);
+        hostKeyProvider.setKeySize(256);
+        // generates the key
+        hostKey = hostKeyProvider.loadKeys(null).iterator().next().getPublic();
+        sshServer = SshServer.setUpDefaultServer();
+        sshServer.setHost("localhost");
+        sshServer.setPort(0);
+        sshServer.setKeyPairProvider(hostKeyProvider);
+        sshServer.setPasswordAuthenticator((user, pass, session) -> USERNAME.equals(user) && PASSWORD.equals(pass));
+        sshServer.setSubsystemFactories(Collections.singletonList(new SftpSubsystemFactory()));
+        sshServer.setFileSystemFactory(new VirtualFileSystemFactory(remoteRoot));
+        sshServer.start();
+    }
+
+    public int getPort() {
+        return sshServer.getPort();
+    }
+
+    /**
+     * @param remoteFolder absolute folder on the server, e.g. /heris/
+     * @return the local location of the folder, it is created if it does not exist
+     * @throws IOException
+     */
+    public Path createRemoteFolder(String remoteFolder) throws IOException {
+        return Files.createDirectories(remoteRoot.resolve(remoteFolder.substring(1)));
+    }
+
+    public Path getRemoteRoot() {
+        return remoteRoot;
+    }
+
+    /**
+     * Write a known hosts file with the host key of the server
+     * 
+     * @param knownHosts location of the file
+     * @param port port the clients connect to, e.g. the port of a proxy in front of the server
+     * @return the file
+     * @throws IOException
+     */
+    public Path writeKnownHosts(Path knownHosts, int port) throws IOException {
+        return Files.write(knownHosts, ("[localhost]:" + port + " " + PublicKeyEntry.toString(hostKey) + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param listener e.g. to count the channels opened by the clients
+     */
+    public void addChannelListener(ChannelListener listener) {
+        sshServer.addChannelListener(listener);
+    }
+
+    @Override
+    public void close() throws IOException {
+        sshServer.stop(true);
+    }
+}
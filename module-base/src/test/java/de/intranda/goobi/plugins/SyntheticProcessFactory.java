@@ -0,0 +1,198 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.goobi.beans.GoobiProperty;
+import org.goobi.beans.Process;
+import org.powermock.api.easymock.PowerMock;
+
+import de.sub.goobi.config.ConfigurationHelper;
+
+/**
+ * Creates processes with a generated meta.xml and a configurable number of pages and selected images. The images are copies of the sample
+ * media, the process folders are created below the given metadata folder.
+ */
+public class SyntheticProcessFactory {
+
+    private static final String[] SAMPLE_IMAGES = { "Sammelmappe1.pdf_Seite_007.tif", "Sammelmappe1.pdf_Seite_008.tif",
+            "Sammelmappe1.pdf_Seite_009.tif", "Sammelmappe1.pdf_Seite_010.tif", "Sammelmappe1.pdf_Seite_011.tif" };
+
+    private final Path metadataFolder;
+    private final Path sampleMediaFolder;
+
+    public SyntheticProcessFactory(Path metadataFolder, Path sampleMediaFolder) {
+        this.metadataFolder = metadataFolder;
+        this.sampleMediaFolder = sampleMediaFolder;
+    }
+
+    /**
+     * Create a process with the given number of pages. The first selectedImages pages are selected for the export.
+     *
+     * @param processId id of the process, used as folder name
+     * @param herisId HERIS ID of the record
+     * @param pageCount number of pages and photographs
+     * @param selectedImages number of selected images
+     * @return the process
+     * @throws Exception
+     */
+    public Process createProcess(int processId, String herisId, int pageCount, int selectedImages) throws Exception {
+        Path processFolder = metadataFolder.resolve(String.valueOf(processId));
+        Path imageFolder = processFolder.resolve("images").resolve("sample_media");
+        Files.createDirectories(imageFolder);
+
+        for (int page = 1; page <= pageCount; page++) {
+            Files.copy(sampleMediaFolder.resolve(SAMPLE_IMAGES[(page - 1) % SAMPLE_IMAGES.length]), imageFolder.resolve(getImageName(page)));
+        }
+        writeMetsFile(processFolder.resolve("meta.xml"), herisId, pageCount);
+
+        Process process = HerisExportPluginTest.createProcess();
+        process.setId(processId);
+        process.setTitel("synthetic_" + processId);
+        List<GoobiProperty> properties = process.getEigenschaften();
+        properties.get(0).setPropertyValue(getSelection(Math.min(selectedImages, pageCount)));
+        return process;
+    }
+
+    public static String getImageName(int page) {
+        return String.format("synthetic_%05d.tif", page);
+    }
+
+    private static String getSelection(int selectedImages) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int page = 1; page <= selectedImages; page++) {
+            if (page > 1) {
+                sb.append(',');
+            }
+            sb.append('"').append(getImageName(page)).append("\":").append(page);
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void writeMetsFile(Path metsFile, String herisId, int pageCount) throws IOException {
+        try (Writer w = Files.newBufferedWriter(metsFile, StandardCharsets.UTF_8)) {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            w.write("<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\" xmlns:mods=\"http://www.loc.gov/mods/v3\""
+                    + " xmlns:goobi=\"http://meta.goobi.org/v1.5.1/\" xmlns:xlink=\"http://www.w3.org/1999/xlink\">\n");
+            // logical metadata
+            writeDmdSec(w, "DMDLOG_0000", "<goobi:metadata name=\"TitleDocMain\">Synthetic record " + herisId + "</goobi:metadata>"
+                    + "<goobi:metadata name=\"HerisID\">" + herisId + "</goobi:metadata>"
+                    + "<goobi:metadata name=\"Copyright\">Bundesdenkmalamt (BDA)</goobi:metadata>");
+            for (int page = 1; page <= pageCount; page++) {
+                writeDmdSec(w, getId("DMDLOG_", page), "<goobi:metadata name=\"shelfmarksource\">AT-BDA-SYN-" + herisId + "-" + page
+                        + "</goobi:metadata><goobi:metadata name=\"TitleDocMain\">Photograph " + page + "</goobi:metadata>");
+            }
+            writeDmdSec(w, "DMDPHYS_0000", "<goobi:metadata name=\"pathimagefiles\">file:///synthetic/images/sample_media</goobi:metadata>");
+
+            // files
+            w.write("<mets:fileSec><mets:fileGrp USE=\"LOCAL\">\n");
+            for (int page = 1; page <= pageCount; page++) {
+                w.write("<mets:file ID=\"" + getId("FILE_", page) + "\" MIMETYPE=\"image/tiff\"><mets:FLocat LOCTYPE=\"URL\""
+                        + " xlink:href=\"file:///synthetic/images/sample_media/" + getImageName(page) + "\"/></mets:file>\n");
+            }
+            w.write("</mets:fileGrp></mets:fileSec>\n");
+
+            // logical structure
+            w.write("<mets:structMap TYPE=\"LOGICAL\"><mets:div DMDID=\"DMDLOG_0000\" ID=\"LOG_0000\" TYPE=\"Document\">\n");
+            for (int page = 1; page <= pageCount; page++) {
+                w.write("<mets:div DMDID=\"" + getId("DMDLOG_", page) + "\" ID=\"" + getId("LOG_", page) + "\" TYPE=\"Photograph\"/>\n");
+            }
+            w.write("</mets:div></mets:structMap>\n");
+
+            // physical structure
+            w.write("<mets:structMap TYPE=\"PHYSICAL\"><mets:div DMDID=\"DMDPHYS_0000\" ID=\"PHYS_0000\" TYPE=\"BoundBook\">\n");
+            for (int page = 1; page <= pageCount; page++) {
+                w.write("<mets:div ID=\"" + getId("PHYS_", page) + "\" ORDER=\"" + page + "\" ORDERLABEL=\"uncounted\" TYPE=\"page\">"
+                        + "<mets:fptr FILEID=\"" + getId("FILE_", page) + "\"/></mets:div>\n");
+            }
+            w.write("</mets:div></mets:structMap>\n");
+
+            // links
+            w.write("<mets:structLink>\n");
+            for (int page = 1; page <= pageCount; page++) {
+                w.write("<mets:smLink xlink:to=\"" + getId("PHYS_", page) + "\" xlink:from=\"LOG_0000\"/>\n");
+                w.write("<mets:smLink xlink:to=\"" + getId("PHYS_", page) + "\" xlink:from=\"" + getId("LOG_", page) + "\"/>\n");
+            }
+            w.write("</mets:structLink>\n</mets:mets>\n");
+        }
+    }
+
+    private static void writeDmdSec(Writer w, String id, String metadata) throws IOException {
+        w.write("<mets:dmdSec ID=\"" + id + "\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData><mods:mods><mods:extension><goobi:goobi>");
+        w.write(metadata);
+        w.write("</goobi:goobi></mods:extension></mods:mods></mets:xmlData></mets:mdWrap></mets:dmdSec>\n");
+    }
+
+    private static String getId(String prefix, int number) {
+        return prefix + String.format("%04d", number);
+    }
+
+    /**
+     * Write the plugin configuration of the test resources into the given folder, extended by additional elements
+     *
+     * @param configFolder folder to write the configuration into
+     * @param additionalConfiguration xml elements to add to the config block, e.g. the export target
+     * @throws IOException
+     */
+    public static void writePluginConfiguration(Path configFolder, String additionalConfiguration) throws IOException {
+        String config = new String(Files.readAllBytes(getResourcesFolder().resolve("config/plugin_intranda_export_heris.xml")),
+                StandardCharsets.UTF_8);
+        config = config.replace("</config>", additionalConfiguration + "</config>");
+        Files.write(configFolder.resolve("plugin_intranda_export_heris.xml"), config.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Mock the ConfigurationHelper, the calling test must prepare ConfigurationHelper for static mocking
+     *
+     * @param configFolder folder containing the plugin configuration
+     * @param metadataFolder folder containing the processes
+     */
+    public static void mockConfigurationHelper(Path configFolder, Path metadataFolder) {
+        PowerMock.mockStatic(ConfigurationHelper.class);
+        ConfigurationHelper configurationHelper = EasyMock.createMock(ConfigurationHelper.class);
+        EasyMock.expect(ConfigurationHelper.getInstance()).andReturn(configurationHelper).anyTimes();
+        EasyMock.expect(configurationHelper.getMetsEditorLockingTime()).andReturn(1800000l).anyTimes();
+        EasyMock.expect(configurationHelper.isAllowWhitespacesInFolder()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.useS3()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.isUseProxy()).andReturn(false).anyTimes();
+        EasyMock.expect(configurationHelper.getGoobiContentServerTimeOut()).andReturn(60000).anyTimes();
+        EasyMock.expect(configurationHelper.getConfigurationFolder()).andReturn(configFolder.toString() + "/").anyTimes();
+        EasyMock.expect(configurationHelper.getMetadataFolder()).andReturn(metadataFolder.toString() + "/").anyTimes();
+        EasyMock.expect(configurationHelper.getRulesetFolder()).andReturn(getResourcesFolder().toString() + "/").anyTimes();
+        EasyMock.expect(configurationHelper.getProcessImagesMainDirectoryName()).andReturn("sample_media").anyTimes();
+        EasyMock.expect(configurationHelper.isUseMasterDirectory()).andReturn(true).anyTimes();
+        EasyMock.replay(configurationHelper);
+        PowerMock.replay(ConfigurationHelper.class);
+    }
+
+    public static Path getResourcesFolder() {
+        Path resources = Paths.get("src/test/resources/");
+        if (!Files.exists(resources)) {
+            resources = Paths.get("target/test-classes/");
+        }
+        return resources;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TCP proxy on localhost that forwards every connection to a target port and simulates a slow network link. Each direction adds half of the
+ * configured round trip time to every chunk and limits the throughput to the configured bandwidth. Chunks are queued, so several requests can
+ * be in flight at the same time, like on a real link.
+ */
+public class ThrottledTcpProxy implements Closeable {
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final ServerSocket serverSocket;
+    private final int targetPort;
+    private final long oneWayDelayNanos;
+    private final long bytesPerSecond;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param targetPort port on localhost to forward to
+     * @param roundTripMillis simulated round trip time, 0 disables the delay
+     * @param bytesPerSecond bandwidth per direction and connection, 0 disables the limit
+     * @throws IOException
+     */
+    public ThrottledTcpProxy(int targetPort, long roundTripMillis, long bytesPerSecond) throws IOException {
+        this.targetPort = targetPort;
+        this.oneWayDelayNanos = TimeUnit.MILLISECONDS.toNanos(roundTripMillis) / 2;
+        this.bytesPerSecond = bytesPerSecond;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptConnections, "proxy-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(InetAddress.getLoopbackAddress(), targetPort);
+                client.setTcpNoDelay(true);
+                server.setTcpNoDelay(true);
+                forward(client, server, "up");
+                forward(server, client, "down");
+            } catch (IOException e) {
+                // socket closed
+            }
+        }
+    }
+
+    private void forward(Socket from, Socket to, String direction) throws IOException {
+        BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+        InputStream in = from.getInputStream();
+        OutputStream out = to.getOutputStream();
+
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[16384];
+            try {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    queue.put(new Chunk(Arrays.copyOf(buffer, read), System.nanoTime() + oneWayDelayNanos));
+                }
+            } catch (IOException e) {
+                // connection closed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.add(new Chunk(END_OF_STREAM, System.nanoTime() + oneWayDelayNanos));
+        }, "proxy-read-" + direction);
+
+        Thread writer = new Thread(() -> {
+            long nextSendTime = System.nanoTime();
+            try {
+                while (true) {
+                    Chunk chunk = queue.take();
+                    sleepUntil(chunk.due);
+                    if (chunk.data == END_OF_STREAM) {
+                        break;
+                    }
+                    if (bytesPerSecond > 0) {
+                        nextSendTime = Math.max(nextSendTime, System.nanoTime()) + chunk.data.length * 1_000_000_000L / bytesPerSecond;
+                        sleepUntil(nextSendTime);
+                    }
+                    out.write(chunk.data);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // connection closed
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }, "proxy-write-" + direction);
+
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    private static void sleepUntil(long nanoTime) throws InterruptedException {
+        long wait = nanoTime - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    private static class Chunk {
+        private final byte[] data;
+        private final long due;
+
+        private Chunk(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
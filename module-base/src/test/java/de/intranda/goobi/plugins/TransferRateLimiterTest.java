@@ -0,0 +1,79 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransferRateLimiterTest {
+
+    private static final LocalTime NOON = LocalTime.of(12, 0);
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private TransferRateLimiter limiter;
+    private long start;
+
+    @Before
+    public void setUp() {
+        limiter = new TransferRateLimiter();
+        // the bucket is full at the start, it has been refilled for a long time
+        start = System.nanoTime() + 10 * SECOND;
+    }
+
+    @Test
+    public void testUnlimited() {
+        limiter.configure(0, Collections.emptyList());
+        assertEquals(0, limiter.reserve(100_000_000, NOON, start));
+        assertEquals(0, limiter.reserve(100_000_000, NOON, start));
+    }
+
+    @Test
+    public void testTokenBucket() {
+        limiter.configure(1000, Collections.emptyList());
+        // a burst of one second is available immediately
+        assertEquals(0, limiter.reserve(1000, NOON, start));
+        // later callers queue up behind the earlier reservations
+        assertEquals(SECOND / 2, limiter.reserve(500, NOON, start));
+        assertEquals(SECOND, limiter.reserve(500, NOON, start));
+        // after one second the debt is paid, the next bytes are refilled in time
+        assertEquals(0, limiter.reserve(100, NOON, start + SECOND + SECOND / 10));
+        // a long pause refills the bucket only up to one second of bandwidth
+        assertEquals(SECOND / 2, limiter.reserve(1500, NOON, start + 100 * SECOND));
+    }
+
+    @Test
+    public void testWindowAcrossMidnight() {
+        limiter.configure(0, Arrays.asList(new TransferWindow(LocalTime.of(22, 0), LocalTime.of(6, 0), 1000)));
+        assertEquals(1000, limiter.getBytesPerSecond(LocalTime.of(23, 30)));
+        assertEquals(1000, limiter.getBytesPerSecond(LocalTime.of(5, 59)));
+        assertEquals(0, limiter.getBytesPerSecond(LocalTime.of(6, 0)));
+        assertEquals(0, limiter.getBytesPerSecond(NOON));
+
+        // limited at night, unlimited during the day
+        assertEquals(0, limiter.reserve(1000, LocalTime.of(23, 30), start));
+        assertEquals(SECOND, limiter.reserve(1000, LocalTime.of(23, 30), start));
+        assertEquals(0, limiter.reserve(1_000_000, NOON, start));
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * This file is part of the Goobi Application - a Workflow tool for the support of mass digitization.
+ *
+ * Visit the websites for more information.
+ *          - https://goobi.io
+ *          - https://www.intranda.com
+ *          - https://github.com/intranda/goobi-workflow
+ *
+ * This program is free software; you can redistribute it and/or modify it under the terms of the GNU General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with this program; if not, write to the Free Software Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalTime;
+
+import org.junit.Test;
+
+public class TransferWindowTest {
+
+    @Test
+    public void testWindowDuringTheDay() {
+        TransferWindow window = new TransferWindow(LocalTime.of(7, 0), LocalTime.of(19, 0), 1024);
+        assertTrue(window.contains(LocalTime.of(7, 0)));
+        assertTrue(window.contains(LocalTime.of(18, 59, 59)));
+        assertFalse(window.contains(LocalTime.of(19, 0)));
+        assertFalse(window.contains(LocalTime.of(6, 59)));
+        assertFalse(window.contains(LocalTime.MIDNIGHT));
+    }
+
+    @Test
+    public void testWindowWrapsAroundMidnight() {
+        TransferWindow window = new TransferWindow(LocalTime.of(22, 0), LocalTime.of(6, 0), 1024);
+        assertTrue(window.contains(LocalTime.of(22, 0)));
+        assertTrue(window.contains(LocalTime.of(23, 59, 59)));
+        assertTrue(window.contains(LocalTime.MIDNIGHT));
+        assertTrue(window.contains(LocalTime.of(5, 59)));
+        assertFalse(window.contains(LocalTime.of(6, 0)));
+        assertFalse(window.contains(LocalTime.of(12, 0)));
+        assertFalse(window.contains(LocalTime.of(21, 59)));
+    }
+}